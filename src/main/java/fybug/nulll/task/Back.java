@@ -1,23 +1,84 @@
 package fybug.nulll.task;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * <h2>任务反馈对象.</h2>
  * <p>
  * 用于等待检查任务执行状态或干预任务使任务接受停止通知<br/>
- * 在任务完成前 {@link #sync()} 都会阻塞
+ * 在任务完成前 {@link #sync()} 都会阻塞，需要限制等待时间时使用 {@link #sync(long, TimeUnit)}
+ * <br/><br/>
+ * 不希望阻塞线程时可以通过 {@link #onEnd(Runnable)} 注册结束回调，或通过 {@link #future()} 获取 {@link CompletableFuture} 进行组合
+ * <br/><br/>
+ * 任务的返回值和执行中抛出的异常都会记录在该对象中，通过 {@link #get()} 获取，使用 {@link Runnable} 的任务返回值总是 null
+ * <br/><br/>
+ * 等待多个任务时可通过 {@link #allOf(Back[])} 或 {@link #anyOf(Back[])} 合并为一个反馈对象，只需要等待合并后的对象
+ * <br/><br/>
+ * 内部为无锁的状态机，状态为 等待执行 -&gt; 执行中 -&gt; 结束，状态切换只需要一次原子操作<br/>
+ * 等待执行时可通过 {@link #cancel()} 直接切换为已取消，队列拿到已取消的任务时会直接跳过<br/>
+ * 等待的线程和结束回调都放在一个无锁栈中，结束时只唤醒栈中登记过的线程，没有等待者时结束不会产生额外的开销
+ *
+ * @param <T> 任务返回值的类型
  *
  * @author fybug
- * @version 0.0.2
+ * @version 0.0.4
  * @see TaskQueue
  * @see Task
  * @since PDTasks 0.0.1
  */
 public
-class Back {
+class Back<T> {
+    private static final VarHandle STATE;
+    private static final VarHandle WAITERS;
+
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            STATE = lookup.findVarHandle(Back.class, "state", int.class);
+            WAITERS = lookup.findVarHandle(Back.class, "waiters", Node.class);
+        } catch ( ReflectiveOperationException e ) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** 等待执行 */
+    private static final int PENDING = 0;
+    /** 执行中 */
+    private static final int RUNNING = 1;
+    /** 正在通知任务停止，期间不能结束，防止中断到执行线程的下一个任务 */
+    private static final int STOPPING = 2;
+    /** 已结束 */
+    private static final int DONE = 3;
+    /** 已取消 */
+    private static final int CANCELLED = 4;
+
     /** 是否结束 */
     public volatile boolean end = false;
     /** 执行的线程对象 */
     public volatile Thread thread = null;
+    /** 当前状态 */
+    private volatile int state = PENDING;
+    /** 是否收到过停止通知，周期任务收到后不再执行 */
+    volatile boolean stopped = false;
+    /** 等待的线程和结束回调，结束后替换为 {@link Node#ENDED} */
+    @Nullable private volatile Node waiters = null;
+    /** 任务返回值，在结束前写入 */
+    @Nullable private T RESULT = null;
+    /** 任务抛出的异常，在结束前写入 */
+    @Nullable private Throwable ERROR = null;
 
     //----------------------------------------------------------------------------------------------
 
@@ -28,25 +89,453 @@ class Back {
      * @since Back 0.0.2
      */
     public
-    boolean isEnd() {
-        synchronized ( Back.this ){
-            return end;
-        }
-    }
+    boolean isEnd() { return state >= DONE; }
+
+    /**
+     * @return 是否已经被取消
+     *
+     * @see #cancel()
+     * @since Back 0.0.3
+     */
+    public
+    boolean isCancelled() { return state == CANCELLED; }
 
     /**
      * 等待任务结束
      * <p>
-     * 在 {@link Task#end()} 被执行后导致 {@link #end} 改变时即结束等待
+     * 在 {@link Task#end()} 被执行后导致 {@link #end} 改变时即结束等待<br/>
+     * 等待时被中断会直接返回，并保留线程的中断标记
      */
     public
     void sync() {
         try {
-            synchronized ( Back.this ){
-                while( !end )
-                    Back.this.wait();
-            }
+            await(false, 0);
         } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 限时等待任务结束
+     *
+     * @param timeout 最长等待时间
+     * @param unit    时间单位
+     *
+     * @return 任务是否已经结束，超时则返回 false
+     *
+     * @throws InterruptedException 等待时被中断
+     * @since Back 0.0.3
+     */
+    public
+    boolean sync(long timeout, @NotNull TimeUnit unit) throws InterruptedException
+    { return await(true, unit.toNanos(timeout)); }
+
+    /**
+     * 等待结束
+     * <p>
+     * 将当前线程登记到 {@link #waiters} 后进入等待，结束时会被唤醒，超时或被中断时会将登记移除
+     *
+     * @param timed 是否限时
+     * @param nanos 限时的时长，纳秒
+     *
+     * @return 是否已经结束
+     *
+     * @throws InterruptedException 等待时被中断
+     */
+    private
+    boolean await(boolean timed, long nanos) throws InterruptedException {
+        if (isEnd())
+            return true;
+        if (Thread.interrupted())
+            throw new InterruptedException();
+
+        var node = new Node(Thread.currentThread(), null);
+        // 已经结束
+        if (!push(node))
+            return true;
+
+        var deadline = timed ? System.nanoTime() + nanos : 0L;
+        try {
+            while( !isEnd() ){
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                if (timed) {
+                    var remain = deadline - System.nanoTime();
+                    if (remain <= 0)
+                        return false;
+                    LockSupport.parkNanos(this, remain);
+                } else
+                    LockSupport.park(this);
+            }
+            return true;
+        } finally {
+            node.thread = null;
+            if (!isEnd())
+                clean();
+        }
+    }
+
+    /**
+     * 等待任务结束并获取返回值
+     *
+     * @return 任务的返回值
+     *
+     * @throws InterruptedException  等待时被中断
+     * @throws ExecutionException    任务执行时抛出了异常，通过 {@link ExecutionException#getCause()} 获取该异常
+     * @throws CancellationException 任务已经被取消
+     * @since Back 0.0.3
+     */
+    @Nullable
+    public
+    T get() throws InterruptedException, ExecutionException {
+        await(false, 0);
+        return report();
+    }
+
+    /**
+     * 限时等待任务结束并获取返回值
+     *
+     * @param timeout 最长等待时间
+     * @param unit    时间单位
+     *
+     * @return 任务的返回值
+     *
+     * @throws InterruptedException  等待时被中断
+     * @throws ExecutionException    任务执行时抛出了异常，通过 {@link ExecutionException#getCause()} 获取该异常
+     * @throws TimeoutException      等待超时
+     * @throws CancellationException 任务已经被取消
+     * @since Back 0.0.3
+     */
+    @Nullable
+    public
+    T get(long timeout, @NotNull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!sync(timeout, unit))
+            throw new TimeoutException();
+        return report();
+    }
+
+    // 返回结束后的结果
+    @Nullable
+    private
+    T report() throws ExecutionException {
+        if (isCancelled())
+            throw new CancellationException();
+        if (ERROR != null)
+            throw new ExecutionException(ERROR);
+        return RESULT;
+    }
+
+    /**
+     * 获取任务执行时抛出的异常
+     *
+     * @return 未结束或没有异常时返回 null，已取消时返回 {@link CancellationException}
+     *
+     * @since Back 0.0.3
+     */
+    @Nullable
+    public
+    Throwable getError() {
+        if (isCancelled())
+            return new CancellationException();
+        return isEnd() ? ERROR : null;
+    }
+
+    /**
+     * 注册结束回调
+     * <p>
+     * 回调会在 {@link Task#end()} 被执行时由结束任务的线程调用，如果已经结束则直接在当前线程调用<br/>
+     * 回调中发生的异常只会进行打印
+     *
+     * @param runnable 结束回调
+     *
+     * @return this
+     *
+     * @since Back 0.0.3
+     */
+    @NotNull
+    public
+    Back<T> onEnd(@NotNull Runnable runnable) {
+        if (isEnd() || !push(new Node(null, runnable)))
+            runCall(runnable);
+        return this;
+    }
+
+    /**
+     * 获取任务结束的 {@link CompletableFuture}
+     * <p>
+     * 通过 {@link #onEnd(Runnable)} 实现，任务结束时完成，可用于组合大量任务的结束而不阻塞线程<br/>
+     * 任务抛出异常时以该异常异常完成
+     *
+     * @since Back 0.0.3
+     */
+    @NotNull
+    public
+    CompletableFuture<T> future() {
+        var future = new CompletableFuture<T>();
+        onEnd(() -> {
+            var error = getError();
+            if (error != null)
+                future.completeExceptionally(error);
+            else
+                future.complete(RESULT);
+        });
+        return future;
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 合并等待所有任务
+     * <p>
+     * 返回的反馈对象在所有任务都结束后结束，只通过结束回调计数，不占用等待线程<br/>
+     * 有任务抛出异常时，合并的反馈对象记录最先结束的那个异常
+     *
+     * @param backs 要等待的反馈对象
+     *
+     * @return 合并的反馈对象，没有传入任何对象时已经结束
+     *
+     * @since Back 0.0.3
+     */
+    @NotNull
+    public static
+    Back<Void> allOf(@NotNull Back<?>... backs) {
+        var all = new Back<Void>();
+        var error = new AtomicReference<Throwable>();
+        // 多留一个计数保证在注册完回调后才可能结束
+        var remain = new AtomicInteger(backs.length + 1);
+        Runnable countDown = () -> {
+            if (remain.decrementAndGet() == 0) {
+                Optional.ofNullable(error.get()).ifPresent(all::error);
+                all.end();
+            }
+        };
+
+        for ( Back<?> back : backs ){
+            back.onEnd(() -> {
+                var e = back.getError();
+                if (e != null)
+                    error.compareAndSet(null, e);
+                countDown.run();
+            });
+        }
+        countDown.run();
+
+        return all;
+    }
+
+    /**
+     * 合并等待任意一个任务
+     * <p>
+     * 返回的反馈对象在第一个任务结束时结束，并记录该任务的返回值或异常
+     *
+     * @param backs 要等待的反馈对象
+     *
+     * @return 合并的反馈对象
+     *
+     * @throws IllegalArgumentException 没有传入任何对象
+     * @since Back 0.0.3
+     */
+    @NotNull
+    @SafeVarargs
+    public static
+    <T> Back<T> anyOf(@NotNull Back<? extends T>... backs) {
+        if (backs.length == 0)
+            throw new IllegalArgumentException("'backs' must not be empty");
+
+        var any = new Back<T>();
+        var first = new AtomicBoolean();
+        for ( Back<? extends T> back : backs ){
+            back.onEnd(() -> {
+                if (!first.compareAndSet(false, true))
+                    return;
+                if (back.isCancelled()) {
+                    any.cancel();
+                    return;
+                }
+                if (back.ERROR != null)
+                    any.error(back.ERROR);
+                else
+                    any.result(back.RESULT);
+                any.end();
+            });
+        }
+
+        return any;
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 记录任务返回值
+     * <p>
+     * 需要在 {@link #end()} 前调用
+     *
+     * @param result 任务返回值
+     */
+    void result(@Nullable T result) { RESULT = result; }
+
+    /**
+     * 记录任务抛出的异常
+     * <p>
+     * 需要在 {@link #end()} 前调用
+     *
+     * @param error 任务抛出的异常
+     */
+    void error(@NotNull Throwable error) { ERROR = error; }
+
+    /**
+     * 标记为开始执行
+     *
+     * @return 任务不是等待执行的状态时返回 false，此时不应该执行
+     *
+     * @see Task#run()
+     */
+    boolean start() {
+        thread = Thread.currentThread();
+        if (STATE.compareAndSet(this, PENDING, RUNNING))
+            return true;
+        thread = null;
+        return false;
+    }
+
+    /**
+     * 重新标记为等待执行
+     * <p>
+     * 用于周期任务在每次执行结束后回到可以取消的状态，正在通知停止时等待通知完成
+     *
+     * @return 任务不是执行中的状态时返回 false
+     *
+     * @since Back 0.0.4
+     */
+    boolean reset() {
+        for ( int s; ; ){
+            s = state;
+            if (s == STOPPING)
+                Thread.onSpinWait();
+            else if (s != RUNNING)
+                return false;
+            else if (STATE.compareAndSet(this, RUNNING, PENDING))
+                break;
+        }
+        thread = null;
+        return true;
+    }
+
+    /**
+     * 标记为结束
+     * <p>
+     * 唤醒所有登记的等待线程并按照注册顺序运行结束回调，重复调用不会有效果
+     *
+     * @see Task#end()
+     */
+    void end() {
+        for ( int s; ; ){
+            s = state;
+            // 等待停止通知完成
+            if (s == STOPPING)
+                Thread.onSpinWait();
+            else if (s >= DONE)
+                return;
+            else if (STATE.compareAndSet(this, s, DONE))
+                break;
+        }
+        finish();
+    }
+
+    /**
+     * 取消任务
+     * <p>
+     * 只有等待执行的任务可以取消，取消后立即结束，唤醒所有的等待并运行结束回调<br/>
+     * 任务不会从队列中移除，处理线程拿到已取消的任务时直接跳过，因此取消只需要一次原子操作
+     *
+     * @return 是否取消成功，任务已经开始执行或已经结束时返回 false
+     *
+     * @see #tryStop()
+     * @since Back 0.0.3
+     */
+    public
+    boolean cancel() {
+        if (!STATE.compareAndSet(this, PENDING, CANCELLED))
+            return false;
+        finish();
+        return true;
+    }
+
+    /** 状态切换为结束后唤醒所有登记的等待线程并按照注册顺序运行结束回调 */
+    private
+    void finish() {
+        thread = null;
+        end = true;
+
+        // 取出所有登记，此后的登记都会失败
+        var node = (Node) WAITERS.getAndSet(this, Node.ENDED);
+        // 栈为后进先出，翻转为登记顺序
+        Node list = null;
+        while( node != null ){
+            var next = node.next;
+            node.next = list;
+            list = node;
+            node = next;
+        }
+
+        for ( ; list != null; list = list.next ){
+            if (list.call != null)
+                runCall(list.call);
+            else
+                Optional.ofNullable(list.thread).ifPresent(LockSupport::unpark);
+        }
+    }
+
+    /**
+     * 登记等待的线程或结束回调
+     *
+     * @param node 登记的节点
+     *
+     * @return 已经结束时返回 false
+     */
+    private
+    boolean push(@NotNull Node node) {
+        for ( Node h; ; ){
+            h = waiters;
+            if (h == Node.ENDED)
+                return false;
+            node.next = h;
+            if (WAITERS.compareAndSet(this, h, node))
+                return true;
+        }
+    }
+
+    /**
+     * 移除已经放弃等待的线程登记
+     * <p>
+     * 遇到并发修改时从头开始重新检查
+     */
+    private
+    void clean() {
+        retry:
+        for ( ; ; ){
+            for ( Node pred = null, q = waiters, s; q != null && q != Node.ENDED; q = s ){
+                s = q.next;
+                if (q.call != null || q.thread != null)
+                    pred = q;
+                else if (pred != null) {
+                    pred.next = s;
+                    // 前一个节点也已经放弃
+                    if (pred.call == null && pred.thread == null)
+                        continue retry;
+                } else if (!WAITERS.compareAndSet(this, q, s))
+                    continue retry;
+            }
+            return;
+        }
+    }
+
+    // 运行结束回调
+    private static
+    void runCall(@NotNull Runnable runnable) {
+        try {
+            runnable.run();
+        } catch ( RuntimeException e ) {
             e.printStackTrace();
         }
     }
@@ -54,16 +543,39 @@ class Back {
     /**
      * 通知任务可以停止
      * <p>
-     * 采用 {@link Thread#interrupt()}
+     * 采用 {@link Thread#interrupt()}，只在任务执行中有效，通知期间任务不会被标记为结束<br/>
+     * 周期任务收到通知后中断本次执行，并且不再执行后续的周期
      */
     public
     void tryStop() {
-        synchronized ( Back.this ){
-            var thread = this.thread;
-            if (thread != null) {
-                thread.interrupt();
-                thread = null;
-            }
+        if (!STATE.compareAndSet(this, RUNNING, STOPPING))
+            return;
+        stopped = true;
+        try {
+            Optional.ofNullable(thread).ifPresent(Thread::interrupt);
+        } finally {
+            state = RUNNING;
+        }
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    /** 等待栈节点，保存等待的线程或结束回调 */
+    private static final
+    class Node {
+        /** 结束标记，结束后栈顶替换为该节点 */
+        static final Node ENDED = new Node(null, null);
+
+        /** 等待的线程，放弃等待后为 null */
+        @Nullable volatile Thread thread;
+        /** 结束回调 */
+        @Nullable final Runnable call;
+        /** 下一个节点 */
+        @Nullable volatile Node next;
+
+        Node(@Nullable Thread thread, @Nullable Runnable call) {
+            this.thread = thread;
+            this.call = call;
         }
     }
 }
@@ -0,0 +1,82 @@
+package fybug.nulll.task;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * <h2>一致性哈希环.</h2>
+ * <p>
+ * 每个队列在环上放置 {@link #REPLICAS} 个虚拟节点，节点位置只由队列对象本身决定<br/>
+ * 路由键按照哈希值顺时针找到的第一个节点所属的队列即为目标队列，队列增减时只有相邻区间的路由键会被重新分配
+ * <br/><br/>
+ * 构造后不可修改，队列变动时重新构造即可
+ *
+ * @author fybug
+ * @version 0.0.1
+ * @see TasksGroup#addtask(Object, Runnable)
+ * @since PDTasks 0.0.3
+ */
+final
+class HashRing {
+    /** 每个队列的虚拟节点数 */
+    private static final int REPLICAS = 64;
+
+    /** 节点在环上的位置，从小到大排列 */
+    @NotNull private final int[] POINTS;
+    /** 节点所属的队列，与 {@link #POINTS} 一一对应 */
+    @NotNull private final TaskQueue[] OWNERS;
+
+    //----------------------------------------------------------------------------------------------
+
+    /** @param queues 环上的队列 */
+    HashRing(@NotNull TaskQueue[] queues) {
+        // 高位为位置，低位为队列下标，排序后即为环的顺序
+        var nodes = new long[queues.length * REPLICAS];
+        for ( int i = 0; i < queues.length; i++ ){
+            var seed = System.identityHashCode(queues[i]);
+            for ( int r = 0; r < REPLICAS; r++ )
+                nodes[i * REPLICAS + r] = ((long) mix(seed * 31 + r) << 32) | i;
+        }
+        Arrays.sort(nodes);
+
+        POINTS = new int[nodes.length];
+        OWNERS = new TaskQueue[nodes.length];
+        for ( int i = 0; i < nodes.length; i++ ){
+            POINTS[i] = (int) (nodes[i] >> 32);
+            OWNERS[i] = queues[(int) nodes[i]];
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 获取路由键对应的队列
+     *
+     * @param key 路由键
+     *
+     * @return 环为空时返回 null
+     */
+    @Nullable
+    TaskQueue get(@Nullable Object key) {
+        if (POINTS.length == 0)
+            return null;
+
+        var n = Arrays.binarySearch(POINTS, mix(key == null ? 0 : key.hashCode()));
+        if (n < 0)
+            n = -n - 1;
+        // 超过最后一个节点则回到环的起点
+        return OWNERS[n == POINTS.length ? 0 : n];
+    }
+
+    /** 打散哈希值，避免相近的哈希值集中在环的同一段 */
+    private static
+    int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
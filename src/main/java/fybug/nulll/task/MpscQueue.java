@@ -0,0 +1,150 @@
+package fybug.nulll.task;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * <h2>无锁多生产者单消费者队列.</h2>
+ * <p>
+ * 任意线程都可以调用 {@link #offer(Object)} 插入数据，插入只需要一次原子交换，不会阻塞<br/>
+ * {@link #poll()} 只能由唯一的消费线程调用，本身不做任何同步
+ * <br/><br/>
+ * 队列为空时不会进行等待，等待与唤醒由使用方自行处理
+ *
+ * @author fybug
+ * @version 0.0.1
+ * @see TaskQueue
+ * @since PDTasks 0.0.3
+ */
+final
+class MpscQueue<E> {
+    private static final VarHandle HEAD;
+    private static final VarHandle TAIL;
+    private static final VarHandle NEXT;
+
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            HEAD = lookup.findVarHandle(MpscQueue.class, "head", Node.class);
+            TAIL = lookup.findVarHandle(MpscQueue.class, "tail", Node.class);
+            NEXT = lookup.findVarHandle(Node.class, "next", Node.class);
+        } catch ( ReflectiveOperationException e ) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** 队列头，指向已经取出的节点，只由消费线程修改 */
+    @SuppressWarnings( "unused" )
+    private Node<E> head;
+    /** 队列尾，生产线程通过原子交换竞争 */
+    @SuppressWarnings( "unused" )
+    private Node<E> tail;
+
+    //----------------------------------------------------------------------------------------------
+
+    MpscQueue() {
+        var stub = new Node<E>(null);
+        HEAD.set(this, stub);
+        TAIL.setVolatile(this, stub);
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 插入数据
+     * <p>
+     * 可被任意线程调用
+     *
+     * @param e 要插入的数据
+     */
+    void offer(@NotNull E e) {
+        var node = new Node<>(e);
+        link(node, node);
+    }
+
+    /**
+     * 批量插入数据
+     * <p>
+     * 可被任意线程调用，先在本地将所有数据串成链表，随后只需一次原子交换即可全部插入，批量数据在队列中保持连续
+     *
+     * @param es 要插入的数据
+     */
+    void offerAll(@NotNull E[] es) {
+        if (es.length == 0)
+            return;
+
+        var first = new Node<>(es[0]);
+        var last = first;
+        for ( int i = 1; i < es.length; i++ ){
+            var node = new Node<>(es[i]);
+            NEXT.set(last, node);
+            last = node;
+        }
+        link(first, last);
+    }
+
+    /**
+     * 连接一段已经串好的节点到队尾
+     *
+     * @param first 第一个节点
+     * @param last  最后一个节点
+     */
+    @SuppressWarnings( "unchecked" )
+    private
+    void link(@NotNull Node<E> first, @NotNull Node<E> last) {
+        var prev = (Node<E>) TAIL.getAndSet(this, last);
+        NEXT.setRelease(prev, first);
+    }
+
+    /**
+     * 取出数据
+     * <p>
+     * 只能由消费线程调用
+     *
+     * @return 队列为空时返回 null
+     */
+    @Nullable
+    @SuppressWarnings( "unchecked" )
+    E poll() {
+        var h = (Node<E>) HEAD.get(this);
+        var n = (Node<E>) NEXT.getAcquire(h);
+
+        if (n == null) {
+            // 真正的空队列
+            if (h == TAIL.getVolatile(this))
+                return null;
+            // 生产者已经交换了队尾但还没有连接节点，稍等即可
+            do {
+                Thread.onSpinWait();
+            } while( (n = (Node<E>) NEXT.getAcquire(h)) == null );
+        }
+
+        var value = n.value;
+        n.value = null;
+        HEAD.setRelease(this, n);
+        return value;
+    }
+
+    /**
+     * 是否为空
+     * <p>
+     * 可被任意线程调用，结果只是调用时的快照
+     */
+    boolean isEmpty() { return HEAD.getAcquire(this) == TAIL.getVolatile(this); }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    /** 队列节点 */
+    static final
+    class Node<E> {
+        /** 节点数据 */
+        @Nullable E value;
+        /** 下一个节点 */
+        @SuppressWarnings( "unused" )
+        @Nullable Node<E> next;
+
+        Node(@Nullable E value) { this.value = value; }
+    }
+}
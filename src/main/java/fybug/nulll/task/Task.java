@@ -3,15 +3,17 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Optional;
+import java.util.concurrent.Callable;
 
 /**
  * <h2>任务对象.</h2>
  * <p>
  * 需要注册任务实体 {@link Runnable} 和反馈对象 {@link Back}<br/>
- * 通过该对象实现任务队列和反馈对象 {@link Back} 的交互
+ * 通过该对象实现任务队列和反馈对象 {@link Back} 的交互<br/>
+ * 任务内容抛出的异常会记录到反馈对象中，不会影响执行任务的线程
  *
  * @author fybug
- * @version 0.0.1
+ * @version 0.0.2
  * @see TaskQueue
  * @see Back
  * @since PDTasks 0.0.1
@@ -20,8 +22,20 @@ public
 class Task implements Runnable {
     /** 任务内容 */
     @NotNull protected final Optional<Runnable> runnable;
+    /** 加入队列的任务对象，用于估算重量 */
+    @Nullable final Object content;
     /** 反馈对象 */
-    @NotNull protected final Back commput;
+    @NotNull protected final Back<?> commput;
+    /** 是否允许被同组的其他队列窃取 */
+    boolean stealable = false;
+    /** 优先级，越大越先执行 */
+    int priority = 0;
+    /** 启用优先级的队列中的排序值，越小越先执行 */
+    long rank = 0;
+    /** 加入序号，在启用优先级的队列和延迟任务中用于相同排序值时保持加入顺序，队列已满时用于找出最早加入的任务 */
+    long seq = 0;
+    /** 估算的重量 */
+    long weight = 0;
 
     //----------------------------------------------------------------------------------------------
 
@@ -32,34 +46,69 @@ class Task implements Runnable {
      * @param commput  反馈对象
      */
     public
-    Task(@Nullable Runnable runnable, @NotNull Back commput) {
+    Task(@Nullable Runnable runnable, @NotNull Back<?> commput) {
+        this(runnable, commput, runnable);
+    }
+
+    /**
+     * 构造有返回值的任务对象
+     * <p>
+     * 返回值或抛出的异常会记录到反馈对象中
+     *
+     * @param callable 任务内容
+     * @param commput  反馈对象
+     *
+     * @since Task 0.0.2
+     */
+    public
+    <T> Task(@NotNull Callable<T> callable, @NotNull Back<T> commput) {
+        this(() -> {
+            try {
+                commput.result(callable.call());
+            } catch ( Exception e ) {
+                commput.error(e);
+            }
+        }, commput, callable);
+    }
+
+    /**
+     * @param runnable 任务内容
+     * @param commput  反馈对象
+     * @param content  加入队列的任务对象
+     */
+    private
+    Task(@Nullable Runnable runnable, @NotNull Back<?> commput, @Nullable Object content) {
         this.runnable = Optional.ofNullable(runnable);
         this.commput = commput;
+        this.content = content;
     }
 
     //----------------------------------------------------------------------------------------------
 
-    /** 执行线程内容 */
+    /**
+     * 执行线程内容
+     * <p>
+     * 任务内容抛出的异常会记录到 {@link #commput} 中，任务已经开始过或已经取消时不会执行
+     */
     public
     void run() {
-        commput.thread = Thread.currentThread();
-        runnable.ifPresent(Runnable::run);
+        if (!commput.start())
+            return;
+        try {
+            runnable.ifPresent(Runnable::run);
+        } catch ( Throwable e ) {
+            commput.error(e);
+        }
     }
 
     /**
      * 结束反馈
      * <p>
-     * 在此时对应的 {@link Back#sync()} 会终止等待
+     * 在此时对应的 {@link Back#sync()} 会终止等待，并运行 {@link Back#onEnd(Runnable)} 注册的回调
      *
      * @see Back#sync()
      * @see #commput
      */
     public
-    void end() {
-        synchronized ( commput ){
-            commput.thread = null;
-            commput.end = true;
-            commput.notifyAll();
-        }
-    }
+    void end() { commput.end(); }
 }
\ No newline at end of file
@@ -3,15 +3,35 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Optional;
+import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import fybug.nulll.pdconcurrent.ReLock;
 import fybug.nulll.pdconcurrent.SyLock;
+import fybug.nulll.task.serializable.TaskMedium;
+import fybug.nulll.task.serializable.TaskSpill;
 import lombok.Setter;
 import lombok.experimental.Accessors;
 
@@ -20,10 +40,24 @@ import lombok.experimental.Accessors;
  * <p>
  * 队列式任务执行工具，任务在添加后会加入队列并等待执行<br/>
  * 内部通过一个异步执行的 {@code while} 循环不停的读取任务列表中的内容并执行，在没有任务可执行时会进入等待<br/>
- * 可指定使用线程池或单独的线程，建议使用 {@link #build()} 来构造
+ * 可指定使用线程池或单独的线程，建议使用 {@link #build()} 来构造<br/>
+ * 使用单独的线程时可以设置线程的名称、优先级和是否为守护线程，适合需要与共享线程池隔离的低延迟队列
  * <br/><br/>
  * 内部使用一个 {@link Queue} 作为任务队列，所有任务并发安全。在关闭后任务队列会彻底清除，对应的线程任务也会结束<br/>
- * 可注入扫尾事件 {@link #CLOSE_CALL} 和观察事件 {@link #RUN_CALL}
+ * 可通过 {@link Build#batch(int)} 设置处理线程每次上锁拿取的任务数，一次取出多个任务依次执行，减少大量小任务的加锁次数<br/>
+ * 可通过 {@link Build#workers(int)} 设置多个处理线程共同处理同一个队列，此时任务按照加入顺序开始执行，但不保证按照顺序结束<br/>
+ * 可通过 {@link Build#virtual()} 使用虚拟线程运行处理线程，大量队列也不会占用大量系统线程，需要运行在 JDK 21 及以上<br/>
+ * 可通过 {@link Build#lockFree()} 改为使用无锁的多生产者单消费者队列，添加任务时不再争抢队列锁，只有处理线程空闲时才会进行等待和唤醒<br/>
+ * 可注入扫尾事件 {@link #CLOSE_CALL} 和观察事件 {@link #RUN_CALL}<br/>
+ * 任务抛出的异常会记录到对应的 {@link Back} 中，不会中断处理线程，可通过 {@link Back#get()} 获取任务的返回值或异常<br/>
+ * 可通过 {@link #addtask(Runnable, long, TimeUnit)} 添加延迟任务，或通过 {@link #addtaskAtFixedRate(Runnable, long, long, TimeUnit)}、
+ * {@link #addtaskWithFixedDelay(Runnable, long, long, TimeUnit)} 添加周期任务，到期的任务按照到期顺序加入队尾，不需要额外的定时线程<br/>
+ * 延迟任务很多时可通过 {@link Build#timer(TimerWheel)} 改为使用时间轮计时，加入和取消都不受延迟任务数量的影响<br/>
+ * 可通过 {@link Build#prioritized(long, TimeUnit)} 启用优先级，通过 {@link #addtask(Runnable, int)} 加入的高优先级任务会越过队列中的普通任务，
+ * 等待时间越长的任务排序越靠前，普通任务不会被一直饿死<br/>
+ * 可通过 {@link Build#capacity(int)} 限制队列长度，队列已满时按照 {@link Build#overflow(Overflow)} 设置的策略处理新的任务，过载时内存占用不会无限增长<br/>
+ * 任务大小差别很大时可通过 {@link Build#maxWeight(long)} 按照 {@link Weigher} 估算的重量限制队列<br/>
+ * 可通过 {@link Build#spill(String, String, int)} 在队列过长时将 {@link TaskMedium} 任务暂存到磁盘，执行时再读回，突发的大量任务不会占满内存
  * <br/>
  * <pre>示例：
  * public static
@@ -50,15 +84,18 @@ import lombok.experimental.Accessors;
  * }</pre>
  *
  * @author fybug
- * @version 0.0.2
+ * @version 0.0.3
  * @see Task
  * @see Back
  * @since PDTasks 0.0.1
  */
 public
 class TaskQueue implements Closeable {
+    /** 启动虚拟线程的方法，运行环境不支持时为 null */
+    @Nullable private static final MethodHandle VIRTUAL_START = virtualStart();
+
     /** 是否关闭 */
-    protected boolean CLOSE = false;
+    protected volatile boolean CLOSE = false;
     /** 结束监听 */
     @Nullable protected Runnable CLOSE_CALL = null;
 
@@ -66,151 +103,1123 @@ class TaskQueue implements Closeable {
     @NotNull protected final ReLock LOCK = SyLock.newReLock();
     /** 队列锁的管理对象 */
     @NotNull protected Condition QUEUE_WAIT = LOCK.newCondition();
+    /** 队列已满时添加任务的线程在此等待 */
+    @NotNull private final Condition QUEUE_FULL = LOCK.newCondition();
+
+    /** 任务队列 */
+    private Queue<Task> QUEUE;
+    /** 每一级优先级相当于的等待时长，纳秒，为 0 时不启用优先级 */
+    private final long AGING;
+    /** 任务的加入序号，排序值相同时按照加入顺序排列，丢弃任务时按照该序号找出最早加入的任务 */
+    private long QUEUE_SEQ = 0;
+    /** 关闭队列的任务，不会因为队列已满被丢弃 */
+    @Nullable private Task CLOSE_TASK = null;
+    /** 队列的最大长度，为 0 时不限制 */
+    private final int CAPACITY;
+    /** 队列已满时的处理策略 */
+    @NotNull private final Overflow OVERFLOW;
+    /** 队列中任务的最大总重量，为 0 时不限制 */
+    private final long MAX_WEIGHT;
+    /** 任务重量的估算方式 */
+    @NotNull private final Weigher WEIGHER;
+    /** 队列中任务的总重量，由 {@link #LOCK} 保护 */
+    private long WEIGHT = 0;
+    /** 任务溢出文件，队列长度达到 {@link #SPILL_THRESHOLD} 后 {@link TaskMedium} 任务写入该文件 */
+    @Nullable private final TaskSpill SPILL;
+    /** 开始溢出到磁盘的队列长度 */
+    private final int SPILL_THRESHOLD;
+    /** 队列中等待执行的任务数，用于不上锁读取队列长度 */
+    @NotNull private final AtomicInteger SIZE = new AtomicInteger();
+    /** 任务处理监听 */
+    @Nullable private Consumer<Runnable> RUN_CALL = null;
+    /** 每次从 {@link #QUEUE} 中拿取的最大任务数 */
+    private final int BATCH;
+    /** 仍在运行的处理线程数，最后一个退出的处理线程负责清除队列 */
+    @NotNull private final AtomicInteger ALIVE = new AtomicInteger();
+
+    /** 延迟任务，按照到期时间排列，在加锁队列中由 {@link #LOCK} 保护，在无锁队列中只由处理线程访问 */
+    @NotNull private final PriorityQueue<ScheduledTask> DELAYED = new PriorityQueue<>();
+    /** 延迟任务的加入序号，到期时间相同时按照加入顺序排列 */
+    private long DELAYED_SEQ = 0;
+    /** 时间轮，设置后延迟任务交给时间轮计时，不再放入 {@link #DELAYED} */
+    @Nullable private final TimerWheel TIMER;
+    /** 在时间轮中计时的延迟任务，关闭时需要将其结束 */
+    @NotNull private final Set<ScheduledTask> TIMED = ConcurrentHashMap.newKeySet();
+
+    /** 任务窃取接口，队列为空时通过该接口从其他队列拿取任务 */
+    @Nullable private volatile Supplier<Task> STEAL_CALL = null;
+    /** 窃取模式下是否有处理线程空闲，正在窃取或等待 */
+    private volatile boolean IDLE = false;
+    /** 窃取模式下的唤醒标记，防止在窃取和等待之间错过唤醒 */
+    private volatile boolean WAKE = false;
+
+    /** 无锁任务队列，启用后代替 {@link #QUEUE} */
+    @Nullable private final MpscQueue<Task> MPSC_QUEUE;
+    /** 正在插入无锁队列的线程数，关闭时需要等待其归零 */
+    @NotNull private final AtomicInteger ADDING = new AtomicInteger();
+    /** 无锁队列的处理线程 */
+    @Nullable private volatile Thread CONSUMER = null;
+    /** 无锁队列的处理线程是否进入等待 */
+    private volatile boolean PARKED = false;
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 使用线程池构造任务队列
+     *
+     * @param executorService 使用的线程池
+     *
+     * @see ExecutorService
+     */
+    public
+    TaskQueue(@NotNull ExecutorService executorService) { this(build().pool(executorService)); }
+
+    /** 使用单独线程构造任务队列 */
+    public
+    TaskQueue() { this(build()); }
+
+    /**
+     * 使用构造工具构造任务队列
+     * <p>
+     * 所有参数设置完成后才会启动处理线程
+     *
+     * @param build 构造工具
+     */
+    private
+    TaskQueue(@NotNull Build build) {
+        CLOSE_CALL = build.closeCall;
+        RUN_CALL = build.runcall;
+        BATCH = build.batch;
+        AGING = build.aging;
+        CAPACITY = build.capacity;
+        OVERFLOW = build.overflow;
+        MAX_WEIGHT = build.maxWeight;
+        WEIGHER = Optional.ofNullable(build.weigher).orElseGet(Weigher::weighted);
+        QUEUE = AGING > 0 ? new PriorityQueue<>(TaskQueue::compareRank) : new LinkedList<>();
+        MPSC_QUEUE = build.lockFree ? new MpscQueue<>() : null;
+        TIMER = build.timer;
+        SPILL = build.spillName == null ? null : new TaskSpill(build.spillPath, build.spillName);
+        SPILL_THRESHOLD = build.spillThreshold;
+
+        ALIVE.set(build.workers);
+        for ( int i = 0; i < build.workers; i++ )
+            start(build, MPSC_QUEUE == null ? threadTask() : lockFreeTask(), i);
+    }
+
+    /**
+     * 启动处理线程
+     * <p>
+     * 使用单独的线程时按照构造工具中的参数设置线程的名称、优先级和是否为守护线程
+     *
+     * @param build 构造工具
+     * @param task  处理线程代码
+     * @param index 处理线程的序号
+     */
+    private static
+    void start(@NotNull Build build, @NotNull Runnable task, int index) {
+        // 多个处理线程时加上序号
+        var name = build.threadName == null ? null :
+                   build.workers > 1 ? build.threadName + '-' + index : build.threadName;
+
+        if (build.virtual) {
+            var thread = startVirtual(task);
+            if (name != null)
+                thread.setName(name);
+        } else if (build.pool == null) {
+            var thread = new Thread(task);
+            if (name != null)
+                thread.setName(name);
+            thread.setDaemon(build.daemon);
+            thread.setPriority(build.priority);
+            thread.start();
+        } else
+            build.pool.submit(task);
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /** 查找启动虚拟线程的方法，在 JDK 21 以下的环境中不存在 */
+    @Nullable
+    private static
+    MethodHandle virtualStart() {
+        try {
+            return MethodHandles.publicLookup()
+                                .findStatic(Thread.class, "startVirtualThread",
+                                            MethodType.methodType(Thread.class, Runnable.class));
+        } catch ( NoSuchMethodException | IllegalAccessException e ) {
+            return null;
+        }
+    }
+
+    /**
+     * 使用虚拟线程运行
+     *
+     * @param task 要运行的代码
+     *
+     * @return 启动的虚拟线程
+     *
+     * @throws UnsupportedOperationException 运行环境不支持虚拟线程
+     */
+    @NotNull
+    private static
+    Thread startVirtual(@NotNull Runnable task) {
+        if (VIRTUAL_START == null)
+            throw new UnsupportedOperationException("virtual threads require JDK 21 or later");
+        try {
+            return (Thread) VIRTUAL_START.invoke(task);
+        } catch ( RuntimeException | Error e ) {
+            throw e;
+        } catch ( Throwable e ) {
+            throw new UnsupportedOperationException(e);
+        }
+    }
+
+    /**
+     * 运行环境是否支持虚拟线程
+     *
+     * @see Build#virtual()
+     * @since TaskQueue 0.0.3
+     */
+    public static
+    boolean supportVirtual() { return VIRTUAL_START != null; }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 任务队列处理线程代码
+     * <p>
+     * 通过不停的循环读取 {@link #QUEUE} 并执行其中的任务对象，如果队列中已经没有了，将会通过 {@link #QUEUE_WAIT} 等待任务内容<br/>
+     * 每次拿取前先将到期的延迟任务移到队尾，有延迟任务时等待的时间不会超过最近的到期时间
+     * <p>
+     * 每次上锁最多拿取 {@link #BATCH} 个任务，随后在锁外依次执行
+     * <p>
+     * 可同时运行多个该循环共同处理同一个队列
+     * <p>
+     * 如果 {@link #CLOSE} 被标记为 {@code true} 则下一次循环时会退出，最后一个退出的循环执行清除动作
+     */
+    private
+    Runnable threadTask() {
+        return () -> {
+            // 当前批次的任务
+            var batch = new Task[BATCH];
+            // 热点路径，直接使用底层锁避免每次拿取都创建回调
+            var lock = LOCK.getLOCK();
+
+            while( !CLOSE ){
+                // 拿取任务
+                int size = 0;
+                lock.lock();
+                try {
+                    moveDue();
+                    for ( Task t; size < batch.length && (t = QUEUE.poll()) != null; ){
+                        batch[size++] = t;
+                        WEIGHT -= t.weight;
+                    }
+                    SIZE.addAndGet(-size);
+                    // 通知等待空位的添加线程
+                    if (size > 0 && (CAPACITY > 0 || MAX_WEIGHT > 0))
+                        QUEUE_FULL.signalAll();
+                    // 等待数据
+                    if (size == 0 && STEAL_CALL == null)
+                        awaitTask();
+                } catch ( InterruptedException e ) {
+                    // 出现异常，关闭
+                    queueDestruction();
+                } finally {
+                    lock.unlock();
+                }
+
+                // 队列已空，尝试窃取
+                if (size == 0 && STEAL_CALL != null)
+                    size = stealOrWait(batch);
+
+                runBatch(batch, size);
+            }
+
+            if (ALIVE.decrementAndGet() == 0)
+                queueClean();
+        };
+    }
+
+    /**
+     * 窃取任务或等待
+     * <p>
+     * 通过 {@link #STEAL_CALL} 从其他队列拿取一个任务，拿不到时才通过 {@link #QUEUE_WAIT} 等待任务内容<br/>
+     * 窃取时不持有当前队列的锁，避免队列之间互相窃取时发生死锁
+     * <p>
+     * 窃取前就标记 {@link #IDLE}，窃取后有新任务加入时加入方必定能看到该标记并通过 {@link #wake()} 设置 {@link #WAKE}，此时不会进入等待
+     *
+     * @param batch 任务批次，窃取到的任务会放在第一位
+     *
+     * @return 批次中的任务数量
+     */
+    private
+    int stealOrWait(@NotNull Task[] batch) {
+        IDLE = true;
+        WAKE = false;
+
+        var steal = STEAL_CALL;
+        var task = steal == null ? null : steal.get();
+        if (task != null) {
+            IDLE = false;
+            batch[0] = task;
+            return 1;
+        }
+
+        LOCK.write(() -> {
+            // 窃取期间可能已经有新的任务
+            if (CLOSE || WAKE || !QUEUE.isEmpty())
+                return;
+            try {
+                // 等待数据
+                awaitTask();
+            } catch ( InterruptedException e ) {
+                // 出现异常，关闭
+                queueDestruction();
+            }
+        });
+        IDLE = false;
+        return 0;
+    }
+
+    /**
+     * 将到期的延迟任务按照到期顺序移到队尾
+     * <p>
+     * 需要持有 {@link #LOCK}，已取消的延迟任务直接丢弃
+     */
+    private
+    void moveDue() {
+        if (DELAYED.isEmpty())
+            return;
+
+        var now = System.nanoTime();
+        var moved = false;
+        for ( ScheduledTask t; (t = DELAYED.peek()) != null && t.time - now <= 0; ){
+            DELAYED.poll();
+            if (t.commput.isCancelled())
+                continue;
+            offer(t);
+            moved = true;
+        }
+        // 通知其他处理线程
+        if (moved)
+            QUEUE_WAIT.signal();
+    }
+
+    /**
+     * 等待任务内容
+     * <p>
+     * 需要持有 {@link #LOCK}，有延迟任务时只等待到最近的到期时间
+     *
+     * @throws InterruptedException 等待时被中断
+     */
+    private
+    void awaitTask() throws InterruptedException {
+        var next = DELAYED.peek();
+        if (next == null)
+            QUEUE_WAIT.await();
+        else
+            QUEUE_WAIT.awaitNanos(next.time - System.nanoTime());
+    }
+
+    /**
+     * 执行一批任务
+     * <p>
+     * 执行途中队列被关闭时，剩余的任务不再执行，只标记为完成
+     *
+     * @param batch 任务批次
+     * @param size  批次中的任务数量
+     */
+    private
+    void runBatch(@NotNull Task[] batch, int size) {
+        for ( int i = 0; i < size; i++ ){
+            var run = batch[i];
+            batch[i] = null;
+
+            if (CLOSE)
+                run.end();
+            else
+                runTask(run);
+        }
+    }
+
+    /**
+     * 无锁队列处理线程代码
+     * <p>
+     * 通过不停的读取 {@link #MPSC_QUEUE} 并执行其中的任务对象，读取不需要上锁<br/>
+     * 如果队列中已经没有了，会先标记 {@link #PARKED} 并再次检查队列，确认为空后才进入等待，添加任务时只有检查到该标记才会进行唤醒
+     * <p>
+     * 延迟任务同样通过 {@link #MPSC_QUEUE} 交给处理线程，由处理线程放入 {@link #DELAYED}，因此 {@link #DELAYED} 不需要上锁<br/>
+     * 到期的延迟任务优先执行，有延迟任务时等待的时间不会超过最近的到期时间
+     * <p>
+     * 如果 {@link #CLOSE} 被标记为 {@code true} 则下一次循环时会退出，并执行清除动作
+     */
+    private
+    Runnable lockFreeTask() {
+        return () -> {
+            CONSUMER = Thread.currentThread();
+
+            while( !CLOSE ){
+                var due = pollDue();
+                if (due != null) {
+                    runTask(due);
+                    continue;
+                }
+
+                var run = MPSC_QUEUE.poll();
+                if (run != null) {
+                    SIZE.decrementAndGet();
+                    // 延迟任务放入等待
+                    if (run instanceof ScheduledTask && TIMER == null)
+                        delay((ScheduledTask) run);
+                    else
+                        runTask(run);
+                    continue;
+                }
+
+                // 先标记等待再检查，保证不会错过唤醒
+                PARKED = true;
+                if (MPSC_QUEUE.isEmpty() && !CLOSE) {
+                    var next = DELAYED.peek();
+                    if (next == null)
+                        LockSupport.park(this);
+                    else
+                        LockSupport.parkNanos(this, next.time - System.nanoTime());
+                }
+                PARKED = false;
+
+                // 出现中断，关闭
+                if (Thread.interrupted())
+                    queueDestruction();
+            }
+
+            queueClean();
+            CONSUMER = null;
+        };
+    }
+
+    /**
+     * 取出一个到期的延迟任务
+     * <p>
+     * 只由无锁队列的处理线程调用，已取消的延迟任务直接丢弃
+     *
+     * @return 没有到期的任务时返回 null
+     */
+    @Nullable
+    private
+    ScheduledTask pollDue() {
+        for ( ScheduledTask t; (t = DELAYED.peek()) != null && t.time - System.nanoTime() <= 0; ){
+            DELAYED.poll();
+            if (!t.commput.isCancelled())
+                return t;
+        }
+        return null;
+    }
+
+    /**
+     * 放入延迟任务
+     * <p>
+     * 需要持有 {@link #LOCK} 或由无锁队列的处理线程调用
+     *
+     * @param task 延迟任务
+     */
+    private
+    void delay(@NotNull ScheduledTask task) {
+        task.seq = DELAYED_SEQ++;
+        DELAYED.add(task);
+    }
+
+    /**
+     * 执行一个任务
+     * <p>
+     * 依次运行任务处理监听、任务内容并结束反馈，已经取消的任务不会运行监听和任务内容<br/>
+     * 任务内容的异常由 {@link Task#run()} 记录到反馈对象中，监听的异常只打印，都不会中断处理线程<br/>
+     * 结束后清除 {@link Back#tryStop()} 留下的中断标记，防止任务没有处理中断时处理线程在等待中被中断而关闭队列
+     *
+     * @param run 要执行的任务
+     */
+    private
+    void runTask(@NotNull Task run) {
+        // 已取消，直接跳过
+        if (run.commput.isCancelled())
+            return;
+        // 启动监听
+        var runcall = RUN_CALL;
+        if (runcall != null) {
+            try {
+                runcall.accept(run);
+            } catch ( RuntimeException e ) {
+                e.printStackTrace();
+            }
+        }
+        /* 执行操作 */
+        run.run();
+        run.end();
+        // 结束后不会再收到停止通知
+        Thread.interrupted();
+    }
+
+    /**
+     * 清除任务队列
+     * <p>
+     * 运行关闭监听，随后将队列中剩余的任务标记为已完成
+     */
+    private
+    void queueClean() {
+        // 运行关闭监听
+        Optional.ofNullable(CLOSE_CALL).ifPresent(Runnable::run);
+
+        // 将队列中的任务标记为已完成，并清除队列
+        Optional.ofNullable(QUEUE).ifPresent(q -> {
+            q.forEach(Task::end);
+            q.clear();
+        });
+        if (MPSC_QUEUE != null) {
+            // 等待正在插入的线程完成
+            while( ADDING.get() > 0 )
+                Thread.onSpinWait();
+            for ( var t = MPSC_QUEUE.poll(); t != null; t = MPSC_QUEUE.poll() )
+                t.end();
+        }
+        // 未到期的延迟任务同样标记为已完成
+        for ( ScheduledTask t; (t = DELAYED.poll()) != null; )
+            t.end();
+        for ( ScheduledTask t : TIMED ){
+            if (TIMED.remove(t)) {
+                t.unschedule();
+                t.end();
+            }
+        }
+        SIZE.set(0);
+        WEIGHT = 0;
+        // 删除溢出文件
+        if (SPILL != null) {
+            try {
+                SPILL.close();
+            } catch ( IOException e ) {
+                e.printStackTrace();
+            }
+        }
+        // 清除参数
+        CLOSE_CALL = null;
+        QUEUE = null;
+        RUN_CALL = null;
+    }
+
+    /**
+     * 安全关闭任务队列
+     * <p>
+     * 设置 {@link #CLOSE} 为 {@code true} 随后唤醒任务等待线程，等待其结束循环并开始清除
+     */
+    private
+    void queueDestruction() {
+        LOCK.write(() -> {
+            CLOSE = true;
+            QUEUE_WAIT.signalAll();
+            QUEUE_FULL.signalAll();
+        });
+        Optional.ofNullable(CONSUMER).ifPresent(LockSupport::unpark);
+    }
+
+    /**
+     * 插入任务到无锁队列
+     * <p>
+     * 插入期间会记录在 {@link #ADDING} 中，关闭时会等待所有插入完成后再清除队列，保证插入成功的任务必定会被执行或标记完成
+     *
+     * @param task 要插入的任务
+     *
+     * @return 队列已关闭则返回 false
+     */
+    private
+    boolean lockFreeOffer(@NotNull Task task) {
+        ADDING.incrementAndGet();
+        try {
+            if (CLOSE)
+                return false;
+            SIZE.incrementAndGet();
+            MPSC_QUEUE.offer(task);
+        } finally {
+            ADDING.decrementAndGet();
+        }
+
+        wakeConsumer();
+        return true;
+    }
+
+    /**
+     * 批量插入任务到无锁队列
+     * <p>
+     * 所有任务只进行一次插入和一次唤醒
+     *
+     * @param tasks 要插入的任务
+     *
+     * @return 队列已关闭则返回 false
+     *
+     * @see #lockFreeOffer(Task)
+     */
+    private
+    boolean lockFreeOffer(@NotNull Task[] tasks) {
+        ADDING.incrementAndGet();
+        try {
+            if (CLOSE)
+                return false;
+            SIZE.addAndGet(tasks.length);
+            MPSC_QUEUE.offerAll(tasks);
+        } finally {
+            ADDING.decrementAndGet();
+        }
+
+        wakeConsumer();
+        return true;
+    }
+
+    /** 无锁队列的处理线程在等待时才进行唤醒 */
+    private
+    void wakeConsumer() {
+        if (PARKED)
+            Optional.ofNullable(CONSUMER).ifPresent(LockSupport::unpark);
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 添加任务
+     *
+     * @param runnable 任务接口
+     *
+     * @return 任务反馈对象
+     *
+     * @throws InterruptedException       任务队列不可用，或等待空位时被中断
+     * @throws RejectedExecutionException 队列已满且策略为 {@link Overflow#FAIL}
+     * @see Task
+     * @see Back
+     * @see #QUEUE
+     * @see Build#capacity(int)
+     */
+    @NotNull
+    public
+    Back<Void> addtask(@Nullable Runnable runnable) throws InterruptedException {
+        var back = new Back<Void>();
+        enqueue(new Task(runnable, back));
+        return back;
+    }
+
+    /**
+     * 添加有返回值的任务
+     * <p>
+     * 返回值和任务抛出的异常通过 {@link Back#get()} 获取
+     *
+     * @param callable 任务接口
+     *
+     * @return 任务反馈对象
+     *
+     * @throws InterruptedException 任务队列不可用
+     * @see #addtask(Runnable)
+     * @since TaskQueue 0.0.3
+     */
+    @NotNull
+    public
+    <T> Back<T> addtask(@NotNull Callable<T> callable) throws InterruptedException {
+        var back = new Back<T>();
+        enqueue(new Task(callable, back));
+        return back;
+    }
+
+    /**
+     * 添加带优先级的任务
+     * <p>
+     * 启用优先级时，优先级每高一级可以越过 {@link Build#prioritized(long, TimeUnit)} 设置的时长内加入的任务，未启用时与 {@link #addtask(Runnable)} 相同
+     *
+     * @param runnable 任务接口
+     * @param priority 优先级，越大越先执行，普通任务为 0
+     *
+     * @return 任务反馈对象
+     *
+     * @throws InterruptedException 任务队列不可用
+     * @since TaskQueue 0.0.3
+     */
+    @NotNull
+    public
+    Back<Void> addtask(@Nullable Runnable runnable, int priority) throws InterruptedException {
+        var back = new Back<Void>();
+        var task = new Task(runnable, back);
+        task.priority = priority;
+        enqueue(task);
+        return back;
+    }
+
+    /**
+     * 添加带优先级的有返回值的任务
+     *
+     * @param callable 任务接口
+     * @param priority 优先级，越大越先执行，普通任务为 0
+     *
+     * @return 任务反馈对象
+     *
+     * @throws InterruptedException 任务队列不可用
+     * @see #addtask(Runnable, int)
+     * @since TaskQueue 0.0.3
+     */
+    @NotNull
+    public
+    <T> Back<T> addtask(@NotNull Callable<T> callable, int priority) throws InterruptedException {
+        var back = new Back<T>();
+        var task = new Task(callable, back);
+        task.priority = priority;
+        enqueue(task);
+        return back;
+    }
+
+    /**
+     * 添加延迟任务
+     * <p>
+     * 任务到期后加入队尾，与其他任务一样按照队列顺序执行
+     *
+     * @param runnable 任务接口
+     * @param delay    延迟时间，小于等于 0 时尽快执行
+     * @param unit     时间单位
+     *
+     * @return 任务反馈对象
+     *
+     * @throws InterruptedException 任务队列不可用
+     * @see #addtask(Runnable)
+     * @since TaskQueue 0.0.3
+     */
+    @NotNull
+    public
+    Back<Void> addtask(@Nullable Runnable runnable, long delay, @NotNull TimeUnit unit) throws InterruptedException {
+        var back = new Back<Void>();
+        schedule(new ScheduledTask(runnable, back, unit.toNanos(delay), 0));
+        return back;
+    }
+
+    /**
+     * 添加固定频率的周期任务
+     * <p>
+     * 每次执行的到期时间为上一次的到期时间加上周期，执行耗时超过周期时下一次会在结束后立即加入队尾，不会并发执行<br/>
+     * 反馈对象在任务被取消、收到停止通知、抛出异常或队列关闭时才会结束，任务抛出异常后不再执行
+     *
+     * @param runnable     任务接口
+     * @param initialDelay 第一次执行的延迟时间
+     * @param period       执行周期
+     * @param unit         时间单位
+     *
+     * @return 任务反馈对象，等待时可通过 {@link Back#cancel()}、执行中可通过 {@link Back#tryStop()} 停止后续的执行
+     *
+     * @throws InterruptedException     任务队列不可用
+     * @throws IllegalArgumentException 周期小于等于 0
+     * @since TaskQueue 0.0.3
+     */
+    @NotNull
+    public
+    Back<Void> addtaskAtFixedRate(@NotNull Runnable runnable, long initialDelay, long period, @NotNull TimeUnit unit)
+            throws InterruptedException
+    {
+        if (period <= 0)
+            throw new IllegalArgumentException("'period' must be greater than 0");
+        var back = new Back<Void>();
+        schedule(new ScheduledTask(runnable, back, unit.toNanos(initialDelay), unit.toNanos(period)));
+        return back;
+    }
+
+    /**
+     * 添加固定间隔的周期任务
+     * <p>
+     * 每次执行结束后经过间隔时间再次到期<br/>
+     * 反馈对象在任务被取消、收到停止通知、抛出异常或队列关闭时才会结束，任务抛出异常后不再执行
+     *
+     * @param runnable     任务接口
+     * @param initialDelay 第一次执行的延迟时间
+     * @param delay        两次执行的间隔
+     * @param unit         时间单位
+     *
+     * @return 任务反馈对象，等待时可通过 {@link Back#cancel()}、执行中可通过 {@link Back#tryStop()} 停止后续的执行
+     *
+     * @throws InterruptedException     任务队列不可用
+     * @throws IllegalArgumentException 间隔小于等于 0
+     * @since TaskQueue 0.0.3
+     */
+    @NotNull
+    public
+    Back<Void> addtaskWithFixedDelay(@NotNull Runnable runnable, long initialDelay, long delay, @NotNull TimeUnit unit)
+            throws InterruptedException
+    {
+        if (delay <= 0)
+            throw new IllegalArgumentException("'delay' must be greater than 0");
+        var back = new Back<Void>();
+        schedule(new ScheduledTask(runnable, back, unit.toNanos(initialDelay), -unit.toNanos(delay)));
+        return back;
+    }
+
+    /**
+     * 插入延迟任务
+     * <p>
+     * 加锁队列直接放入 {@link #DELAYED}，成为最早到期的任务时唤醒处理线程重新计算等待时间<br/>
+     * 无锁队列通过 {@link #MPSC_QUEUE} 交给处理线程放入<br/>
+     * 设置了时间轮时交给时间轮计时，到期后由时间轮的刻度线程加入队尾
+     *
+     * @param task 延迟任务
+     *
+     * @throws InterruptedException 任务队列不可用
+     */
+    private
+    void schedule(@NotNull ScheduledTask task) throws InterruptedException {
+        if (TIMER != null) {
+            canrun();
+            TIMED.add(task);
+            try {
+                task.timeout = TIMER.schedule(() -> {
+                    if (!TIMED.remove(task))
+                        return;
+                    try {
+                        enqueue(task, false);
+                    } catch ( InterruptedException e ) {
+                        // 队列已关闭
+                        task.end();
+                    }
+                }, task.time - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch ( IllegalStateException e ) {
+                // 时间轮已关闭
+                TIMED.remove(task);
+                throw new InterruptedException();
+            }
+            // 加入期间队列被关闭，且未被清除
+            if (CLOSE && TIMED.remove(task)) {
+                task.unschedule();
+                throw new InterruptedException();
+            }
+            return;
+        }
+
+        if (MPSC_QUEUE != null) {
+            if (!lockFreeOffer(task))
+                throw new InterruptedException();
+            return;
+        }
+
+        LOCK.trywrite(InterruptedException.class, () -> {
+            canrun();
+            delay(task);
+            if (DELAYED.peek() == task)
+                QUEUE_WAIT.signal();
+        });
+    }
+
+    /**
+     * 插入任务对象
+     * <p>
+     * 由任务组调用时可以插入已经标记了允许被窃取的任务，无锁队列不支持窃取，此时该标记无效
+     *
+     * @param task 要插入的任务
+     *
+     * @throws InterruptedException       任务队列不可用，或等待空位时被中断
+     * @throws RejectedExecutionException 队列已满且策略为 {@link Overflow#FAIL}
+     * @see #steal()
+     * @see #admit(Task, List)
+     */
+    void enqueue(@NotNull Task task) throws InterruptedException { enqueue(task, true); }
+
+    /**
+     * 插入任务对象
+     *
+     * @param task  要插入的任务
+     * @param admit 是否检查队列长度，已经接受过的任务重新加入时不检查
+     *
+     * @throws InterruptedException       任务队列不可用，或等待空位时被中断
+     * @throws RejectedExecutionException 队列已满且策略为 {@link Overflow#FAIL}
+     */
+    private
+    void enqueue(@NotNull Task task, boolean admit) throws InterruptedException {
+        if (MPSC_QUEUE != null) {
+            if (!lockFreeOffer(task))
+                throw new InterruptedException();
+            return;
+        }
 
-    /** 任务队列 */
-    private Queue<Task> QUEUE = new LinkedList<>();
-    /** 任务处理监听 */
-    @Nullable private Consumer<Runnable> RUN_CALL = null;
+        // 在锁外写入溢出文件
+        var queued = admit ? spill(task, SIZE.get()) : task;
+        var dropped = admit && OVERFLOW == Overflow.DROP_OLDEST ? new ArrayList<Task>(1) : null;
+        boolean accepted;
+        try {
+            accepted = LOCK.trywrite(InterruptedException.class, () -> {
+                canrun();
+                if (admit && !admit(queued, dropped))
+                    return false;
+                if (QUEUE != null)
+                    offer(queued);
+                QUEUE_WAIT.signal();
+                return true;
+            });
+        } catch ( InterruptedException | RuntimeException e ) {
+            // 没有加入队列，释放溢出文件中的记录
+            if (queued != task)
+                queued.commput.cancel();
+            throw e;
+        }
 
-    //----------------------------------------------------------------------------------------------
+        overflowed(accepted ? null : List.of(queued), dropped);
+    }
 
     /**
-     * 使用线程池构造任务队列
+     * 检查队列长度
+     * <p>
+     * 需要持有 {@link #LOCK}，队列已满时按照 {@link #OVERFLOW} 处理
      *
-     * @param executorService 使用的线程池
+     * @param task    要加入的任务
+     * @param dropped 策略为 {@link Overflow#DROP_OLDEST} 时记录被丢弃的任务，在锁外取消
      *
-     * @see ExecutorService
+     * @return 是否可以加入队列，为 false 时由添加任务的线程执行该任务
+     *
+     * @throws InterruptedException       任务队列不可用，或等待空位时被中断
+     * @throws RejectedExecutionException 队列已满且策略为 {@link Overflow#FAIL}
      */
-    public
-    TaskQueue(@NotNull ExecutorService executorService)
-    { executorService.submit(threadTask()); }
+    private
+    boolean admit(@NotNull Task task, @Nullable List<Task> dropped) throws InterruptedException {
+        if (MAX_WEIGHT > 0)
+            task.weight = Math.max(WEIGHER.weigh(task.content), 0);
+        if (CAPACITY <= 0 && MAX_WEIGHT <= 0)
+            return true;
 
-    /** 使用单独线程构造任务队列 */
-    public
-    TaskQueue() { new Thread(threadTask()); }
+        while( isFull(task) ){
+            if (OVERFLOW == Overflow.BLOCK) {
+                // 先唤醒处理线程，否则批量加入时已放入的任务无人处理
+                QUEUE_WAIT.signalAll();
+                QUEUE_FULL.await();
+                canrun();
+            } else if (OVERFLOW == Overflow.FAIL) {
+                throw new RejectedExecutionException("Queue is full");
+            } else if (OVERFLOW == Overflow.DROP_OLDEST) {
+                var old = oldest();
+                // 只剩关闭任务，之后加入的任务都不会执行，直接放入
+                if (old == null)
+                    break;
+                QUEUE.remove(old);
+                removed(old);
+                dropped.add(old);
+            } else
+                return false;
+        }
+        return true;
+    }
 
     /**
-     * 使用线程池构造任务队列
-     *
-     * @param executorService 使用的线程池
-     * @param closcall        指定关闭监听
-     * @param consumer        任务处理监听
+     * 找出最早加入的任务
+     * <p>
+     * 需要持有 {@link #LOCK}，按照加入序号查找，启用优先级时队头不一定是最早加入的任务，关闭任务不会被选中
      *
-     * @see ExecutorService
+     * @return 没有可以丢弃的任务时返回 null
      */
+    @Nullable
     private
-    TaskQueue(@NotNull ExecutorService executorService, @Nullable Runnable closcall,
-              @Nullable Consumer<Runnable> consumer)
-    {
-        this(executorService);
-        CLOSE_CALL = closcall;
-        RUN_CALL = consumer;
+    Task oldest() {
+        Task old = null;
+        for ( Task t : QUEUE ){
+            if (t == CLOSE_TASK)
+                continue;
+            if (old == null || t.seq < old.seq)
+                old = t;
+            // 未启用优先级时队列就是加入顺序
+            if (AGING <= 0)
+                break;
+        }
+        return old;
     }
 
     /**
-     * 使用单独线程构造任务队列
+     * 队列是否已经放不下该任务
+     * <p>
+     * 需要持有 {@link #LOCK}，队列为空时总是可以放入，即使任务本身超过了最大重量
      *
-     * @param closecall 指定关闭监听
-     * @param consumer  任务处理监听
+     * @param task 要加入的任务
      */
     private
-    TaskQueue(@Nullable Runnable closecall, @Nullable Consumer<Runnable> consumer) {
-        this();
-        CLOSE_CALL = closecall;
-        RUN_CALL = consumer;
+    boolean isFull(@NotNull Task task) {
+        if (QUEUE == null || QUEUE.isEmpty())
+            return false;
+        return (CAPACITY > 0 && QUEUE.size() >= CAPACITY) || (MAX_WEIGHT > 0 && WEIGHT + task.weight > MAX_WEIGHT);
     }
 
-    //----------------------------------------------------------------------------------------------
-
     /**
-     * 任务队列处理线程代码
-     * <p>
-     * 通过不停的循环读取 {@link #QUEUE} 并执行其中的任务对象，如果队列中已经没有了，将会通过 {@link #QUEUE_WAIT} 等待任务内容
+     * 记录任务已经移出队列
      * <p>
-     * 如果 {@link #CLOSE} 被标记为 {@code true} 则下一次循环时会退出，并执行清除动作
+     * 需要持有 {@link #LOCK}
+     *
+     * @param task 移出的任务
      */
     private
-    Runnable threadTask() {
-        return () -> {
-            while( !CLOSE ){
-                // 拿取任务
-                var task = LOCK.write(() -> {
-                    var po = Optional.ofNullable(QUEUE.poll());
-                    po.ifPresentOrElse(p -> {}, () -> {
-                        try {
-                            // 等待数据
-                            QUEUE_WAIT.await();
-                        } catch ( InterruptedException e ) {
-                            // 出现异常，关闭
-                            queueDestruction();
-                        }
-                    });
-                    return po;
-                });
+    void removed(@NotNull Task task) {
+        SIZE.decrementAndGet();
+        WEIGHT -= task.weight;
+    }
 
-                task.ifPresent(run -> {
-                    // 启动监听
-                    Optional.ofNullable(RUN_CALL).ifPresent(consumer -> consumer.accept(run));
-                    /* 执行操作 */
-                    run.run();
-                    run.end();
-                });
+    /**
+     * 处理没有加入队列的任务
+     * <p>
+     * 在锁外调用，由添加任务的线程执行被拒绝的任务，并取消被丢弃的任务
+     *
+     * @param rejected 被拒绝的任务
+     * @param dropped  被丢弃的任务
+     */
+    private
+    void overflowed(@Nullable List<Task> rejected, @Nullable List<Task> dropped) {
+        if (dropped != null) {
+            for ( Task t : dropped )
+                t.commput.cancel();
+        }
+        if (rejected != null) {
+            for ( Task t : rejected ){
+                // 保留添加任务的线程原本的中断状态
+                var interrupted = Thread.currentThread().isInterrupted();
+                runTask(t);
+                if (interrupted)
+                    Thread.currentThread().interrupt();
             }
+        }
+    }
 
-            // 运行关闭监听
-            Optional.ofNullable(CLOSE_CALL).ifPresent(Runnable::run);
-
-            // 将队列中的任务标记为已完成，并清除队列
-            Optional.ofNullable(QUEUE).ifPresent(q -> {
-                q.forEach(Task::end);
-                q.clear();
-            });
-            // 清除参数
-            CLOSE_CALL = null;
-            QUEUE = null;
-            RUN_CALL = null;
-        };
+    /**
+     * 放入任务队列
+     * <p>
+     * 需要持有 {@link #LOCK}，启用优先级时根据加入时间和优先级计算排序值
+     *
+     * @param task 要放入的任务
+     *
+     * @see #compareRank(Task, Task)
+     */
+    private
+    void offer(@NotNull Task task) {
+        if (AGING > 0) {
+            long boost;
+            try {
+                boost = Math.multiplyExact(task.priority, AGING);
+            } catch ( ArithmeticException e ) {
+                boost = task.priority > 0 ? Long.MAX_VALUE >> 2 : Long.MIN_VALUE >> 2;
+            }
+            task.rank = System.nanoTime() - boost;
+        }
+        task.seq = QUEUE_SEQ++;
+        QUEUE.add(task);
+        SIZE.incrementAndGet();
+        WEIGHT += task.weight;
     }
 
     /**
-     * 安全关闭任务队列
+     * 将任务写入溢出文件
      * <p>
-     * 设置 {@link #CLOSE} 为 {@code true} 随后唤醒任务等待线程，等待其结束循环并开始清除
+     * 在加入队列前于锁外调用，队列长度达到 {@link #SPILL_THRESHOLD} 时才写入，队列长度不上锁读取，只作为大致的判断<br/>
+     * 只处理通过 {@link Runnable} 加入的 {@link TaskMedium} 任务，其他任务和写入失败的任务依旧放在内存中<br/>
+     * 占位的任务不计算重量，也不会被窃取，反馈对象结束时释放文件中的记录
+     *
+     * @param task   要写入的任务
+     * @param queued 队列中已有的任务数
+     *
+     * @return 占位的任务，不需要或无法写入时返回原任务
      */
+    @NotNull
     private
-    void queueDestruction() {
-        LOCK.write(() -> {
-            CLOSE = true;
-            QUEUE_WAIT.signalAll();
+    Task spill(@NotNull Task task, int queued) {
+        if (SPILL == null || queued < SPILL_THRESHOLD || task.getClass() != Task.class
+            || !(task.content instanceof TaskMedium))
+            return task;
+
+        long offset;
+        try {
+            offset = SPILL.write((TaskMedium) task.content);
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            return task;
+        }
+
+        var spilled = new SpilledTask(task.commput, offset);
+        spilled.priority = task.priority;
+        task.commput.onEnd(() -> {
+            try {
+                SPILL.release(offset);
+            } catch ( IOException e ) {
+                e.printStackTrace();
+            }
         });
+        return spilled;
     }
 
-    //----------------------------------------------------------------------------------------------
+    /**
+     * 比较任务的执行顺序
+     * <p>
+     * 排序值为加入时间减去优先级乘以 {@link #AGING}，越小越先执行，相同时按照加入顺序<br/>
+     * 高一级的任务可以越过 {@link #AGING} 时间内加入的任务，等待更久的任务依旧先执行
+     */
+    private static
+    int compareRank(@NotNull Task a, @NotNull Task b) {
+        var d = a.rank - b.rank;
+        return d < 0 ? -1 : d > 0 ? 1 : Long.compare(a.seq, b.seq);
+    }
 
     /**
-     * 添加任务
+     * 批量添加任务
+     * <p>
+     * 所有任务按照集合的迭代顺序一次性加入队列，整批只上一次锁，队列未满时只唤醒一次处理线程<br/>
+     * 队列已满时每个任务分别按照 {@link Overflow} 处理，中途抛出异常时整批任务都会被取消
      *
-     * @param runnable 任务接口
+     * @param runnables 任务接口集合
      *
-     * @return 任务反馈对象
+     * @return 任务反馈对象，与集合的迭代顺序一一对应
      *
-     * @throws InterruptedException 任务队列不可用
-     * @see Task
-     * @see Back
-     * @see #QUEUE
+     * @throws InterruptedException       任务队列不可用，或等待空位时被中断
+     * @throws RejectedExecutionException 队列已满且策略为 {@link Overflow#FAIL}
+     * @see #addtask(Runnable)
+     * @since TaskQueue 0.0.3
      */
     @NotNull
     public
-    Back addtask(@Nullable Runnable runnable) throws InterruptedException {
-        var back = new Back();
+    List<Back<Void>> addtasks(@NotNull Collection<? extends Runnable> runnables) throws InterruptedException {
+        var runs = runnables.toArray(Runnable[]::new);
+        var backs = new ArrayList<Back<Void>>(runs.length);
+        var tasks = new Task[runs.length];
+        for ( int i = 0; i < runs.length; i++ ){
+            var back = new Back<Void>();
+            backs.add(back);
+            tasks[i] = new Task(runs[i], back);
+        }
 
-        LOCK.trywrite(InterruptedException.class, () -> {
-            canrun();
-            Optional.ofNullable(QUEUE).ifPresent(q -> q.add(new Task(runnable, back)));
-            QUEUE_WAIT.signalAll();
-        });
+        if (MPSC_QUEUE != null) {
+            if (!lockFreeOffer(tasks))
+                throw new InterruptedException();
+            return backs;
+        }
 
-        return back;
+        // 在锁外写入溢出文件
+        var queued = SIZE.get();
+        for ( int i = 0; i < tasks.length; i++ )
+            tasks[i] = spill(tasks[i], queued + i);
+
+        var rejected = new ArrayList<Task>(0);
+        var dropped = OVERFLOW == Overflow.DROP_OLDEST ? new ArrayList<Task>(0) : null;
+        try {
+            LOCK.trywrite(InterruptedException.class, () -> {
+                try {
+                    canrun();
+                    for ( Task task : tasks ){
+                        if (!admit(task, dropped))
+                            rejected.add(task);
+                        else if (QUEUE != null)
+                            offer(task);
+                    }
+                } finally {
+                    // 中途失败时已放入的任务同样需要处理线程取出
+                    QUEUE_WAIT.signalAll();
+                }
+            });
+        } catch ( InterruptedException | RuntimeException e ) {
+            // 整批失败，取消已经加入的任务，调用方拿不到它们的反馈对象
+            for ( Back<Void> back : backs )
+                back.cancel();
+            if (dropped != null)
+                overflowed(null, dropped);
+            throw e;
+        }
+
+        overflowed(rejected, dropped);
+        return backs;
     }
 
     //----------------------------------------------------------------------------------------------
@@ -221,6 +1230,8 @@ class TaskQueue implements Closeable {
      * 通过在任务队列最后插入一个调用 {@link #queueDestruction()} 函数的任务实现，该函数负责安全关闭队列
      * <p>
      * 这意味着在之前的任务完成前队列将会依旧存在，但是后续加入的任务将无法执行
+     * <p>
+     * 有多个处理线程时，关闭任务执行时之前的任务都已开始但可能仍在执行，关闭监听会在所有处理线程退出后运行
      *
      * @param runnable 关闭处理
      *
@@ -228,24 +1239,24 @@ class TaskQueue implements Closeable {
      */
     @Nullable
     public
-    Back close(@Nullable Runnable runnable) {
-        final Back[] back = {new Back()};
+    Back<Void> close(@Nullable Runnable runnable) {
+        var back = new Back<Void>();
+        Runnable destruction = () -> {
+            queueDestruction();
+            Optional.ofNullable(runnable).ifPresent(Runnable::run);
+        };
 
-        LOCK.write(() -> {
-            if (CLOSE) {
-                back[0] = null;
-                return;
-            }
-            Optional.ofNullable(QUEUE).ifPresentOrElse(que -> {
-                que.add(new Task(() -> {
-                    queueDestruction();
-                    Optional.ofNullable(runnable).ifPresent(Runnable::run);
-                }, back[0]));
-                QUEUE_WAIT.signal();
-            }, () -> back[0] = null);
-        });
+        if (MPSC_QUEUE != null)
+            return lockFreeOffer(new Task(destruction, back)) ? back : null;
 
-        return back[0];
+        return LOCK.write(() -> {
+            if (CLOSE || QUEUE == null)
+                return null;
+            CLOSE_TASK = new Task(destruction, back);
+            offer(CLOSE_TASK);
+            QUEUE_WAIT.signal();
+            return back;
+        });
     }
 
     /**
@@ -261,13 +1272,101 @@ class TaskQueue implements Closeable {
 
     //----------------------------------------------------------------------------------------------
 
+    /**
+     * 设置任务窃取接口
+     * <p>
+     * 设置后队列为空时会先通过该接口拿取任务，拿不到才进入等待，无锁队列不支持窃取
+     *
+     * @param steal 任务窃取接口，返回 null 代表没有可窃取的任务
+     *
+     * @see #STEAL_CALL
+     */
+    void stealCall(@Nullable Supplier<Task> steal) {
+        STEAL_CALL = steal;
+        // 唤醒已经在等待的处理线程
+        wake();
+    }
+
+    /**
+     * 被窃取任务
+     * <p>
+     * 从队尾开始找出第一个允许被窃取的任务并移出队列
+     *
+     * @return 没有可窃取的任务时返回 null
+     *
+     * @see Task#stealable
+     */
+    @Nullable
+    Task steal() {
+        return LOCK.write(() -> {
+            if (CLOSE || QUEUE == null)
+                return null;
+
+            Iterator<Task> it =
+                    QUEUE instanceof Deque ? ((Deque<Task>) QUEUE).descendingIterator() : QUEUE.iterator();
+            while( it.hasNext() ){
+                var task = it.next();
+                // 顺便清除已取消的任务
+                if (task.commput.isCancelled()) {
+                    it.remove();
+                    removed(task);
+                } else if (task.stealable) {
+                    it.remove();
+                    removed(task);
+                    if (CAPACITY > 0 || MAX_WEIGHT > 0)
+                        QUEUE_FULL.signalAll();
+                    return task;
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 唤醒一个空闲的处理线程
+     *
+     * @see #WAKE
+     */
+    void wake() {
+        LOCK.write(() -> {
+            WAKE = true;
+            QUEUE_WAIT.signal();
+        });
+    }
+
+    /**
+     * 窃取模式下是否有处理线程空闲
+     *
+     * @see #IDLE
+     */
+    boolean isIdle() { return IDLE; }
+
+    //----------------------------------------------------------------------------------------------
+
     /**
      * 是否有任务
      *
      * @see #QUEUE
      */
     public
-    boolean hasTask() { return LOCK.read(() -> QUEUE != null && QUEUE.size() > 0); }
+    boolean hasTask() {
+        if (MPSC_QUEUE != null)
+            return !MPSC_QUEUE.isEmpty();
+        return LOCK.read(() -> QUEUE != null && QUEUE.size() > 0);
+    }
+
+    /**
+     * 获取等待执行的任务数
+     * <p>
+     * 不需要上锁，结果只是调用时的快照，可用于任务分配时的负载判断
+     *
+     * @return 队列中等待执行的任务数，不包括正在执行的任务，包括已取消但还未被跳过的任务
+     *
+     * @see #SIZE
+     * @since TaskQueue 0.0.3
+     */
+    public
+    int size() { return Math.max(SIZE.get(), 0); }
 
     //----------------------------
 
@@ -291,6 +1390,143 @@ class TaskQueue implements Closeable {
             throw new InterruptedException();
     }
 
+    /*--------------------------------------------------------------------------------------------*/
+
+    /**
+     * <h2>队列已满时的处理策略.</h2>
+     *
+     * @author fybug
+     * @version 0.0.1
+     * @see Build#capacity(int)
+     * @since TaskQueue 0.0.3
+     */
+    public
+    enum Overflow {
+        /** 阻塞添加任务的线程，直到队列有空位 */
+        BLOCK,
+        /** 抛出 {@link RejectedExecutionException} */
+        FAIL,
+        /** 丢弃队列中最早加入的任务，被丢弃的任务会被取消，等待执行的关闭任务不会被丢弃 */
+        DROP_OLDEST,
+        /** 由添加任务的线程直接执行该任务 */
+        CALLER_RUNS
+    }
+
+    /**
+     * <h2>延迟任务.</h2>
+     * <p>
+     * 在 {@link #DELAYED} 中按照到期时间排列，到期后作为普通任务执行<br/>
+     * 周期任务在执行结束时不结束反馈对象，而是计算下一次的到期时间重新放入 {@link #DELAYED}<br/>
+     * 周期任务每次执行时反馈对象处于执行中，可以通过 {@link Back#tryStop()} 停止，两次执行之间处于等待执行，可以取消<br/>
+     * 使用时间轮时取消反馈对象会同时取消时间轮中的计时
+     */
+    private final
+    class ScheduledTask extends Task implements Comparable<ScheduledTask> {
+        /** 周期，大于 0 为固定频率，小于 0 为固定间隔，0 为只执行一次 */
+        private final long period;
+        /** 到期时间，{@link System#nanoTime()} */
+        long time;
+        /** 周期任务是否抛出了异常 */
+        private boolean failed = false;
+        /** 时间轮中的计时 */
+        @Nullable volatile TimerWheel.Timeout timeout = null;
+
+        /**
+         * @param runnable 任务内容
+         * @param commput  反馈对象
+         * @param delay    延迟时间，纳秒
+         * @param period   周期，纳秒
+         */
+        ScheduledTask(@Nullable Runnable runnable, @NotNull Back<?> commput, long delay, long period) {
+            super(runnable, commput);
+            this.period = period;
+            // 防止溢出
+            time = System.nanoTime() + Math.min(Math.max(delay, 0), Long.MAX_VALUE >> 1);
+            // 取消时同时从时间轮中移除
+            if (TIMER != null)
+                commput.onEnd(() -> {
+                    if (commput.isCancelled() && TIMED.remove(this))
+                        unschedule();
+                });
+        }
+
+        /** 取消时间轮中的计时 */
+        void unschedule() { Optional.ofNullable(timeout).ifPresent(TimerWheel.Timeout::cancel); }
+
+        @Override
+        public
+        void run() {
+            if (period == 0) {
+                super.run();
+                return;
+            }
+            // 每次执行时切换为执行中，可以接收停止通知，结束后在 end 中切换回等待执行
+            if (!commput.start())
+                return;
+            try {
+                runnable.ifPresent(Runnable::run);
+            } catch ( Throwable e ) {
+                commput.error(e);
+                failed = true;
+            }
+        }
+
+        @Override
+        public
+        void end() {
+            // 回到等待执行后才能在等待下一次执行时被取消
+            if (period != 0 && !failed && !CLOSE && commput.reset() && !commput.stopped) {
+                time = period > 0 ? time + period : System.nanoTime() - period;
+                try {
+                    schedule(this);
+                    return;
+                } catch ( InterruptedException e ) {
+                    // 队列已关闭
+                }
+            }
+            super.end();
+        }
+
+        @Override
+        public
+        int compareTo(@NotNull ScheduledTask o) {
+            var d = time - o.time;
+            return d < 0 ? -1 : d > 0 ? 1 : Long.compare(seq, o.seq);
+        }
+    }
+
+    /**
+     * <h2>溢出到磁盘的任务.</h2>
+     * <p>
+     * 只记录任务在 {@link #SPILL} 中的位置，执行时再读回任务内容，读取失败的异常记录到反馈对象中
+     */
+    private final
+    class SpilledTask extends Task {
+        /** 任务在溢出文件中的位置 */
+        private final long offset;
+
+        /**
+         * @param commput 反馈对象
+         * @param offset  任务在溢出文件中的位置
+         */
+        SpilledTask(@NotNull Back<?> commput, long offset) {
+            super((Runnable) null, commput);
+            this.offset = offset;
+        }
+
+        @Override
+        public
+        void run() {
+            if (!commput.start())
+                return;
+            try {
+                SPILL.read(offset).run();
+            } catch ( Throwable e ) {
+                commput.error(e);
+            }
+        }
+    }
+
     //----------------------------------------------------------------------------------------------
 
     /** 获取构造工具 */
@@ -305,9 +1541,23 @@ class TaskQueue implements Closeable {
      * {@link #pool(ExecutorService)} 设置使用的线程池
      * {@link #closeCall(Runnable)} 设置队列关闭监听
      * {@link #runcall(Consumer)} 设置任务拿取监听
+     * {@link #lockFree()} 启用无锁队列
+     * {@link #batch(int)} 设置每次拿取的任务数
+     * {@link #workers(int)} 设置处理线程数
+     * {@link #virtual()} 使用虚拟线程
+     * {@link #timer(TimerWheel)} 设置延迟任务使用的时间轮
+     * {@link #prioritized(long, TimeUnit)} 启用优先级
+     * {@link #capacity(int)} 设置队列的最大长度
+     * {@link #overflow(Overflow)} 设置队列已满时的处理策略
+     * {@link #maxWeight(long)} 设置队列中任务的最大总重量
+     * {@link #weigher(Weigher)} 设置任务重量的估算方式
+     * {@link #spill(String, String, int)} 设置队列过长时任务的溢出文件
+     * {@link #threadName(String)} 设置处理线程的名称
+     * {@link #daemon(boolean)} 设置单独的线程是否为守护线程
+     * {@link #priority(int)} 设置单独的线程的优先级
      *
      * @author fybug
-     * @version 0.0.1
+     * @version 0.0.2
      * @since TaskQueue 0.0.1
      */
     @Accessors( fluent = true, chain = true )
@@ -329,15 +1579,200 @@ class TaskQueue implements Closeable {
         @Nullable
         @Setter
         private ExecutorService pool = null;
+        /** 是否使用无锁队列 */
+        private boolean lockFree = false;
+        /** 是否使用虚拟线程 */
+        private boolean virtual = false;
+        /**
+         * 延迟任务使用的时间轮
+         * <p>
+         * 不设置则由队列自己计时，时间轮可以在多个队列之间共享，关闭队列不会关闭时间轮
+         *
+         * @since Build 0.0.2
+         */
+        @Setter
+        @Nullable
+        private TimerWheel timer = null;
+        /**
+         * 处理线程的名称
+         * <p>
+         * 对单独的线程和虚拟线程生效，有多个处理线程时会在名称后加上序号，不设置则使用默认名称
+         */
+        @Setter
+        @Nullable
+        private String threadName = null;
+        /** 单独的线程是否为守护线程，默认为否 */
+        @Setter private boolean daemon = false;
+        /** 单独的线程的优先级，默认为 {@link Thread#NORM_PRIORITY} */
+        @Setter private int priority = Thread.NORM_PRIORITY;
+        /**
+         * 每次拿取的任务数
+         * <p>
+         * 处理线程每次上锁时最多从队列中拿取该数量的任务并依次执行，默认为 1。无锁队列拿取任务不需要上锁，不受该参数影响
+         */
+        @Setter private int batch = 1;
+        /**
+         * 处理线程数
+         * <p>
+         * 多个处理线程共同处理同一个队列，一个耗时的任务不会阻塞后续任务，默认为 1<br/>
+         * 不能与无锁队列同时使用
+         */
+        @Setter private int workers = 1;
+        /** 每一级优先级相当于的等待时长，纳秒，为 0 时不启用优先级 */
+        private long aging = 0;
+        /**
+         * 队列的最大长度
+         * <p>
+         * 只计算等待执行的任务，不包括正在执行和未到期的延迟任务，默认为 0 即不限制<br/>
+         * 不能与无锁队列同时使用
+         *
+         * @since Build 0.0.2
+         */
+        @Setter private int capacity = 0;
+        /**
+         * 队列已满时的处理策略，默认为 {@link Overflow#BLOCK}
+         *
+         * @since Build 0.0.2
+         */
+        @Setter
+        @NotNull
+        private Overflow overflow = Overflow.BLOCK;
+        /**
+         * 队列中任务的最大总重量
+         * <p>
+         * 只计算等待执行的任务，默认为 0 即不限制，超过时与 {@link #capacity(int)} 一样按照 {@link #overflow(Overflow)} 处理<br/>
+         * 队列为空时总能放入一个任务，即使其重量超过了该值<br/>
+         * 不能与无锁队列同时使用
+         *
+         * @since Build 0.0.2
+         */
+        @Setter private long maxWeight = 0;
+        /**
+         * 任务重量的估算方式，默认为 {@link Weigher#weighted()}
+         *
+         * @since Build 0.0.2
+         */
+        @Setter
+        @Nullable
+        private Weigher weigher = null;
+        /** 溢出文件保存的路径 */
+        @NotNull private String spillPath = "";
+        /** 溢出文件的保存名称，为 null 时不启用溢出 */
+        @Nullable private String spillName = null;
+        /** 开始溢出到磁盘的队列长度 */
+        private int spillThreshold = 0;
+
+        /**
+         * 启用无锁队列
+         * <p>
+         * 任务队列改为无锁的多生产者单消费者队列，适合大量线程同时添加任务的场景
+         *
+         * @since Build 0.0.2
+         */
+        @NotNull
+        public
+        Build lockFree() {
+            lockFree = true;
+            return this;
+        }
+
+        /**
+         * 启用优先级
+         * <p>
+         * 任务队列改为按照排序值出队，排序值为加入时间减去优先级乘以 aging，即优先级每高一级相当于多等待了 aging 的时间<br/>
+         * 高优先级的任务可以越过较晚加入的低优先级任务，但等待超过差值的低优先级任务依旧会先执行，不会被饿死<br/>
+         * 不能与无锁队列同时使用
+         *
+         * @param aging 每一级优先级相当于的等待时长
+         * @param unit  时间单位
+         *
+         * @see TaskQueue#addtask(Runnable, int)
+         * @since Build 0.0.2
+         */
+        @NotNull
+        public
+        Build prioritized(long aging, @NotNull TimeUnit unit) {
+            this.aging = unit.toNanos(aging);
+            return this;
+        }
+
+        /**
+         * 启用溢出到磁盘
+         * <p>
+         * 队列中等待的任务达到 threshold 个后，通过 {@link Runnable} 加入的 {@link TaskMedium} 任务会序列化到溢出文件，队列中只保留占位的任务，执行时再读回<br/>
+         * 溢出的任务不计算重量，其他任务依旧放在内存中。文件中的记录全部执行后文件会被清空，关闭队列时删除<br/>
+         * 队列长度依旧受 {@link #capacity(int)} 限制，不能与无锁队列同时使用
+         *
+         * @param path      溢出文件保存的路径
+         * @param filename  溢出文件的保存名称
+         * @param threshold 开始溢出的队列长度
+         *
+         * @see TaskSpill
+         * @since Build 0.0.2
+         */
+        @NotNull
+        public
+        Build spill(@NotNull String path, @NotNull String filename, int threshold) {
+            spillPath = path;
+            spillName = filename;
+            spillThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * 使用虚拟线程
+         * <p>
+         * 处理线程改为虚拟线程，不占用线程池，空闲等待时不会占用系统线程，适合构造大量的队列<br/>
+         * 不能与线程池同时使用，需要运行在 JDK 21 及以上
+         *
+         * @see TaskQueue#supportVirtual()
+         * @since Build 0.0.2
+         */
+        @NotNull
+        public
+        Build virtual() {
+            virtual = true;
+            return this;
+        }
 
-        /** 构造任务队列 */
+        /**
+         * 构造任务队列
+         *
+         * @throws IllegalArgumentException      参数不合法时
+         * @throws UnsupportedOperationException 运行环境不支持虚拟线程时
+         */
         @NotNull
         public
         TaskQueue build() {
-            if (pool == null)
-                return new TaskQueue(closeCall, runcall);
-            else
-                return new TaskQueue(pool, closeCall, runcall);
+            if (batch < 1)
+                throw new IllegalArgumentException("'batch' must be greater than 0");
+            if (workers < 1)
+                throw new IllegalArgumentException("'workers' must be greater than 0");
+            if (lockFree && workers > 1)
+                throw new IllegalArgumentException("lock-free queue only supports one worker");
+            if (aging < 0)
+                throw new IllegalArgumentException("'aging' must not be negative");
+            if (lockFree && aging > 0)
+                throw new IllegalArgumentException("lock-free queue does not support priority");
+            if (capacity < 0)
+                throw new IllegalArgumentException("'capacity' must not be negative");
+            if (lockFree && capacity > 0)
+                throw new IllegalArgumentException("lock-free queue does not support capacity");
+            if (maxWeight < 0)
+                throw new IllegalArgumentException("'maxWeight' must not be negative");
+            if (lockFree && maxWeight > 0)
+                throw new IllegalArgumentException("lock-free queue does not support weight limit");
+            if (spillName != null && spillThreshold < 0)
+                throw new IllegalArgumentException("'threshold' must not be negative");
+            if (lockFree && spillName != null)
+                throw new IllegalArgumentException("lock-free queue does not support spill");
+            if (priority < Thread.MIN_PRIORITY || priority > Thread.MAX_PRIORITY)
+                throw new IllegalArgumentException("'priority' out of range");
+            if (virtual && pool != null)
+                throw new IllegalArgumentException("virtual thread cannot be used with 'pool'");
+            if (virtual && !supportVirtual())
+                throw new UnsupportedOperationException("virtual threads require JDK 21 or later");
+            return new TaskQueue(this);
         }
     }
 }
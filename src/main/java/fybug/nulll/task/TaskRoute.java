@@ -0,0 +1,159 @@
+package fybug.nulll.task;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <h2>任务分配策略.</h2>
+ * <p>
+ * 用于 {@link TasksGroup} 在未指定队列 id 时选择任务要加入的队列<br/>
+ * 传入的队列数组为任务组缓存的当前可用队列，不为空且不可修改，选择时不应进行上锁或创建对象<br/>
+ * 只有按照路由键选择的策略会收到路由键，其他情况下路由键为 null
+ * <br/><br/>
+ * 内置的策略：<br/>
+ * {@link #random()} 随机选择<br/>
+ * {@link #roundRobin()} 轮流选择<br/>
+ * {@link #leastQueued()} 选择等待任务最少的队列<br/>
+ * {@link #twoChoices()} 随机选择两个队列，取等待任务较少的一个<br/>
+ * {@link #keyHash()} 根据路由键的哈希值选择，只对 {@link TasksGroup#addtask(Object, Runnable)} 加入的任务有效
+ *
+ * @author fybug
+ * @version 0.0.2
+ * @see TasksGroup
+ * @see TaskQueue#size()
+ * @since PDTasks 0.0.3
+ */
+@FunctionalInterface
+public
+interface TaskRoute {
+    /**
+     * 选择队列
+     *
+     * @param queues 当前可用的队列
+     * @param key    路由键，没有指定路由键的任务为 null
+     *
+     * @return 选中的队列在 queues 中的位置
+     */
+    int select(@NotNull TaskQueue[] queues, @Nullable Object key);
+
+    /**
+     * 是否按照路由键选择
+     * <p>
+     * 为 true 时 {@link TasksGroup#addtask(Object, Runnable)} 通过该策略选择队列，否则使用任务组的一致性哈希
+     *
+     * @since TaskRoute 0.0.2
+     */
+    default
+    boolean keyed() { return false; }
+
+    //----------------------------------------------------------------------------------------------
+
+    /** 随机选择 */
+    @NotNull
+    static
+    TaskRoute random() { return (queues, key) -> ThreadLocalRandom.current().nextInt(queues.length); }
+
+    /**
+     * 轮流选择
+     * <p>
+     * 每个策略对象单独计数，不要在多个任务组之间共享
+     */
+    @NotNull
+    static
+    TaskRoute roundRobin() {
+        var next = new AtomicInteger();
+        return (queues, key) -> Math.floorMod(next.getAndIncrement(), queues.length);
+    }
+
+    /**
+     * 选择等待任务最少的队列
+     * <p>
+     * 从随机位置开始查找，避免相同长度时总是选中同一个队列
+     *
+     * @see TaskQueue#size()
+     */
+    @NotNull
+    static
+    TaskRoute leastQueued() {
+        return (queues, key) -> {
+            var start = ThreadLocalRandom.current().nextInt(queues.length);
+            var best = start;
+            var min = queues[start].size();
+
+            for ( int i = 1; i < queues.length && min > 0; i++ ){
+                var n = (start + i) % queues.length;
+                var size = queues[n].size();
+                if (size < min) {
+                    best = n;
+                    min = size;
+                }
+            }
+            return best;
+        };
+    }
+
+    /**
+     * 随机选择两个不同的队列，取等待任务较少的一个
+     * <p>
+     * 只需要读取两个队列的长度，在队列很多时比 {@link #leastQueued()} 开销更小，负载依旧接近均衡
+     *
+     * @see TaskQueue#size()
+     */
+    @NotNull
+    static
+    TaskRoute twoChoices() {
+        return (queues, key) -> {
+            if (queues.length == 1)
+                return 0;
+
+            var random = ThreadLocalRandom.current();
+            var a = random.nextInt(queues.length);
+            var b = random.nextInt(queues.length - 1);
+            if (b >= a)
+                b++;
+            return queues[a].size() <= queues[b].size() ? a : b;
+        };
+    }
+
+    /**
+     * 根据路由键的哈希值选择
+     * <p>
+     * 没有路由键的任务随机选择
+     *
+     * @see #keyHash(TaskRoute)
+     */
+    @NotNull
+    static
+    TaskRoute keyHash() { return keyHash(random()); }
+
+    /**
+     * 根据路由键的哈希值选择
+     * <p>
+     * 队列数量不变时，相同的路由键总是选中同一个队列<br/>
+     * 只有通过 {@link TasksGroup#addtask(Object, Runnable)} 指定了路由键的任务使用哈希值，没有路由键的任务交给 fallback 选择
+     *
+     * @param fallback 没有路由键时使用的策略
+     *
+     * @since TaskRoute 0.0.2
+     */
+    @NotNull
+    static
+    TaskRoute keyHash(@NotNull TaskRoute fallback) {
+        return new TaskRoute() {
+            @Override
+            public
+            int select(@NotNull TaskQueue[] queues, @Nullable Object key) {
+                if (key == null)
+                    return fallback.select(queues, null);
+                var h = key.hashCode();
+                return Math.floorMod(h ^ (h >>> 16), queues.length);
+            }
+
+            @Override
+            public
+            boolean keyed() { return true; }
+        };
+    }
+}
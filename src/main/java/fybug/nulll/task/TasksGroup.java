@@ -5,11 +5,14 @@ import org.jetbrains.annotations.Nullable;
 import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import fybug.nulll.pdconcurrent.ObjLock;
@@ -19,13 +22,17 @@ import lombok.experimental.Accessors;
 
 /**
  * <h2>任务队列组.</h2>
- * 对 {@link TaskQueue} 进行组管理，使用对应 id 来操作对应的任务队列。也可以使用随机分配向队列插入任务<br/>
+ * 对 {@link TaskQueue} 进行组管理，使用对应 id 来操作对应的任务队列。也可以使用分配策略 {@link TaskRoute} 向队列插入任务，默认为随机分配<br/>
  * 使用任务组可以并行执行多条任务队列。<br/>
  * 可通过修改构造方法传入的回滚队列是否为空来选择启用或关闭任务 id 回滚，建议使用 {@link #build()} 来构造<br/>
- * 可注册全局任务处理回调和队列结束回调
+ * 可注册全局任务处理回调和队列结束回调<br/>
+ * 可通过 {@link #addtask(Object, Runnable)} 按照路由键加入任务，相同路由键的任务总在同一个队列中按顺序执行，不同路由键的任务并行执行<br/>
+ * 可通过 {@link Build#virtual()} 让不指定线程池追加的队列使用虚拟线程，适合使用大量队列的场景<br/>
+ * 可通过 {@link Build#workSteal()} 启用任务窃取，空闲的队列会从繁忙的队列尾部拿取未指定 id 加入的任务来执行，指定 id 加入的任务不会被窃取，依旧保证顺序<br/>
+ * 可通过 {@link Build#timer()} 让组内追加的所有队列共用一个时间轮处理延迟任务，整个任务组只使用一个计时线程
  *
  * @author fybug
- * @version 0.0.1
+ * @version 0.0.2
  * @since PDTasks 0.0.1
  * todo test
  */
@@ -34,6 +41,10 @@ public
 class TasksGroup implements Closeable {
     // 操作队列
     private final List<TaskQueue> QUEUE = new ArrayList<>();
+    // 可用队列的缓存，队列变动时重建，用于不上锁分配任务
+    private volatile TaskQueue[] LIVE = new TaskQueue[0];
+    // 可用队列的一致性哈希环，与 LIVE 一同重建
+    private volatile HashRing RING = new HashRing(LIVE);
 
     // 最大 id 计数
     private int maxId = 0;
@@ -48,6 +59,14 @@ class TasksGroup implements Closeable {
     private final Consumer<Runnable> RUN_CALL;
     // 结束监听
     private final Runnable CLOSE_CALL;
+    // 是否启用任务窃取
+    private final boolean STEAL;
+    // 任务分配策略
+    private final TaskRoute ROUTE;
+    // 是否使用虚拟线程
+    private final boolean VIRTUAL;
+    // 组内队列共用的时间轮
+    @Nullable private final TimerWheel TIMER;
 
     //----------------------------------------------------------------------------------------------
 
@@ -67,10 +86,24 @@ class TasksGroup implements Closeable {
      * @param closecall 队列关闭监听
      */
     public
-    TasksGroup(@Nullable Set<Integer> idpool, Consumer<Runnable> runcall, Runnable closecall) {
+    TasksGroup(@Nullable Set<Integer> idpool, Consumer<Runnable> runcall, Runnable closecall)
+    { this(idpool, build().runcall(runcall).closecall(closecall)); }
+
+    /**
+     * 使用构造工具构造任务队列
+     *
+     * @param idpool 指定 id 回滚池
+     * @param build  构造工具
+     */
+    private
+    TasksGroup(@Nullable Set<Integer> idpool, @NotNull Build build) {
         ID_POOL = Optional.ofNullable(idpool);
-        RUN_CALL = runcall;
-        CLOSE_CALL = closecall;
+        RUN_CALL = build.runcall;
+        CLOSE_CALL = build.closecall;
+        STEAL = build.workSteal;
+        ROUTE = Optional.ofNullable(build.route).orElseGet(TaskRoute::random);
+        VIRTUAL = build.virtual;
+        TIMER = build.timer ? new TimerWheel() : null;
     }
 
     //----------------------------------------------------------------------------------------------
@@ -84,18 +117,22 @@ class TasksGroup implements Closeable {
      */
     public
     int addQueue(@NotNull ExecutorService p)
-    { return addQueue(TaskQueue.build().pool(p).closeCall(CLOSE_CALL).runcall(RUN_CALL).build()); }
+    { return addQueue(TaskQueue.build().pool(p).closeCall(CLOSE_CALL).runcall(RUN_CALL).timer(TIMER).build()); }
 
     /**
      * 追加任务队列.
      * <p>
-     * 使用单独的线程
+     * 使用单独的线程，启用虚拟线程时使用虚拟线程
      *
      * @return 任务队列 id
      */
     public
-    int addQueue()
-    { return addQueue(TaskQueue.build().closeCall(CLOSE_CALL).runcall(RUN_CALL).build()); }
+    int addQueue() {
+        var build = TaskQueue.build().closeCall(CLOSE_CALL).runcall(RUN_CALL).timer(TIMER);
+        if (VIRTUAL)
+            build.virtual();
+        return addQueue(build.build());
+    }
 
     /**
      * 追加任务队列.
@@ -109,6 +146,10 @@ class TasksGroup implements Closeable {
         return LOCK.write(() -> {
             var id = idget();
             QUEUE.add(id, queue);
+            // 空闲时从其他队列窃取
+            if (STEAL)
+                queue.stealCall(() -> steal(queue));
+            live();
             return id;
         });
     }
@@ -149,6 +190,48 @@ class TasksGroup implements Closeable {
         return id[0];
     }
 
+    // 重建可用队列的缓存，调用时需持有组锁
+    private
+    void live() {
+        var queues = QUEUE.stream().filter(Objects::nonNull).toArray(TaskQueue[]::new);
+        RING = new HashRing(queues);
+        LIVE = queues;
+    }
+
+    //------------------------------------
+
+    // 为空闲的队列从其他队列窃取任务，从随机位置开始查找避免总是窃取同一个队列
+    @Nullable
+    private
+    Task steal(@NotNull TaskQueue thief) {
+        var queues = LIVE;
+        if (queues.length == 0)
+            return null;
+        var start = ThreadLocalRandom.current().nextInt(queues.length);
+
+        for ( int i = 0; i < queues.length; i++ ){
+            var victim = queues[(start + i) % queues.length];
+            if (victim == thief)
+                continue;
+
+            var task = victim.steal();
+            if (task != null)
+                return task;
+        }
+        return null;
+    }
+
+    // 唤醒一个空闲的队列来窃取任务
+    private
+    void wakeIdle(@NotNull TaskQueue[] queues, @NotNull TaskQueue busy) {
+        for ( TaskQueue queue : queues ){
+            if (queue != busy && queue.isIdle()) {
+                queue.wake();
+                return;
+            }
+        }
+    }
+
     //----------------------------------------------------------------------------------------------
 
     /**
@@ -163,31 +246,182 @@ class TasksGroup implements Closeable {
      */
     @NotNull
     public
-    Back addtask(@Nullable Runnable runnable, int id) throws InterruptedException
+    Back<Void> addtask(@Nullable Runnable runnable, int id) throws InterruptedException
     { return getQueue(id).addtask(runnable); }
 
+    /**
+     * 添加有返回值的任务
+     *
+     * @param callable 任务接口
+     * @param id       任务队列 id
+     *
+     * @return 任务反馈对象
+     *
+     * @throws InterruptedException 任务队列不可用
+     * @see TaskQueue#addtask(Callable)
+     * @since TasksGroup 0.0.2
+     */
+    @NotNull
+    public
+    <T> Back<T> addtask(@NotNull Callable<T> callable, int id) throws InterruptedException
+    { return getQueue(id).addtask(callable); }
+
     /**
      * 添加任务
      * <p>
-     * 随机选择一个队列进行
+     * 通过分配策略 {@link #ROUTE} 在可用的队列中选择一个进行，没有路由键，选择过程不上锁
+     * <p>
+     * 启用任务窃取时，该任务可能被其他空闲的队列窃取执行
      *
      * @param runnable 任务接口
      *
      * @return 任务反馈对象
      *
-     * @throws InterruptedException 任务队列不可用
+     * @throws InterruptedException      任务队列不可用
+     * @throws IndexOutOfBoundsException 没有可用的队列
+     * @see TaskRoute
      */
     @NotNull
     public
-    Back addtask(@Nullable Runnable runnable) throws InterruptedException {
-        return LOCK.tryread(InterruptedException.class, () -> {
-            var pool = IDS.toArray(Integer[]::new);
+    Back<Void> addtask(@Nullable Runnable runnable) throws InterruptedException {
+        var back = new Back<Void>();
+        route(new Task(runnable, back), null);
+        return back;
+    }
 
-            int id = pool.length <= 1 ? 0 : ((int) (Math.random() * (pool.length - 1)));
-            id = pool[id];
+    /**
+     * 添加有返回值的任务
+     * <p>
+     * 队列的选择与 {@link #addtask(Runnable)} 相同
+     *
+     * @param callable 任务接口
+     *
+     * @return 任务反馈对象
+     *
+     * @throws InterruptedException      任务队列不可用
+     * @throws IndexOutOfBoundsException 没有可用的队列
+     * @see TaskQueue#addtask(Callable)
+     * @since TasksGroup 0.0.2
+     */
+    @NotNull
+    public
+    <T> Back<T> addtask(@NotNull Callable<T> callable) throws InterruptedException {
+        var back = new Back<T>();
+        route(new Task(callable, back), null);
+        return back;
+    }
 
-            return addtask(runnable, id);
-        });
+    /**
+     * 添加延迟任务
+     * <p>
+     * 通过分配策略 {@link #ROUTE} 选择队列，没有路由键，任务到期后加入该队列的队尾，延迟任务不会被窃取
+     *
+     * @param runnable 任务接口
+     * @param delay    延迟时间
+     * @param unit     时间单位
+     *
+     * @return 任务反馈对象
+     *
+     * @throws InterruptedException      任务队列不可用
+     * @throws IndexOutOfBoundsException 没有可用的队列
+     * @see TaskQueue#addtask(Runnable, long, TimeUnit)
+     * @since TasksGroup 0.0.2
+     */
+    @NotNull
+    public
+    Back<Void> addtask(@Nullable Runnable runnable, long delay, @NotNull TimeUnit unit) throws InterruptedException {
+        var queues = LIVE;
+        if (queues.length == 0)
+            throw new IndexOutOfBoundsException("Queue is not runing;");
+        return queues[ROUTE.select(queues, null)].addtask(runnable, delay, unit);
+    }
+
+    /**
+     * 通过分配策略插入任务
+     *
+     * @param task 要插入的任务
+     * @param key  路由键，没有时为 null
+     *
+     * @throws InterruptedException      任务队列不可用
+     * @throws IndexOutOfBoundsException 没有可用的队列
+     */
+    private
+    void route(@NotNull Task task, @Nullable Object key) throws InterruptedException {
+        var queues = LIVE;
+        if (queues.length == 0)
+            throw new IndexOutOfBoundsException("Queue is not runing;");
+
+        var queue = queues[ROUTE.select(queues, key)];
+        task.stealable = STEAL;
+        queue.enqueue(task);
+        // 目标队列随时可能被长任务占用，通知空闲的队列来窃取
+        if (STEAL)
+            wakeIdle(queues, queue);
+    }
+
+    /**
+     * 按照路由键添加任务
+     * <p>
+     * 通过一致性哈希选择队列，队列不变动时相同路由键的任务总是加入同一个队列，因此按照加入顺序依次执行，不同路由键的任务分散到不同队列并行执行<br/>
+     * 增加或关闭队列时只有一小部分路由键会被分配到别的队列，该部分路由键在变动前后加入的任务不再保证顺序<br/>
+     * 分配策略为 {@link TaskRoute#keyHash()} 等按照路由键选择的策略时改为通过该策略选择，路由键为 null 时依旧使用一致性哈希
+     * <p>
+     * 以该方法加入的任务不会被其他队列窃取
+     *
+     * @param key      路由键，使用其 {@link Object#hashCode()}
+     * @param runnable 任务接口
+     *
+     * @return 任务反馈对象
+     *
+     * @throws InterruptedException      任务队列不可用
+     * @throws IndexOutOfBoundsException 没有可用的队列
+     * @see HashRing
+     * @since TasksGroup 0.0.2
+     */
+    @NotNull
+    public
+    Back<Void> addtask(@Nullable Object key, @Nullable Runnable runnable) throws InterruptedException
+    { return keyQueue(key).addtask(runnable); }
+
+    /**
+     * 按照路由键添加有返回值的任务
+     * <p>
+     * 队列的选择与 {@link #addtask(Object, Runnable)} 相同
+     *
+     * @param key      路由键，使用其 {@link Object#hashCode()}
+     * @param callable 任务接口
+     *
+     * @return 任务反馈对象
+     *
+     * @throws InterruptedException      任务队列不可用
+     * @throws IndexOutOfBoundsException 没有可用的队列
+     * @since TasksGroup 0.0.2
+     */
+    @NotNull
+    public
+    <T> Back<T> addtask(@Nullable Object key, @NotNull Callable<T> callable) throws InterruptedException
+    { return keyQueue(key).addtask(callable); }
+
+    /**
+     * 获取路由键对应的队列
+     *
+     * @throws IndexOutOfBoundsException 没有可用的队列
+     * @see HashRing
+     * @see TaskRoute#keyed()
+     */
+    @NotNull
+    private
+    TaskQueue keyQueue(@Nullable Object key) {
+        if (key != null && ROUTE.keyed()) {
+            var queues = LIVE;
+            if (queues.length == 0)
+                throw new IndexOutOfBoundsException("Queue is not runing;");
+            return queues[ROUTE.select(queues, key)];
+        }
+        var queue = RING.get(key);
+        if (queue == null)
+            throw new IndexOutOfBoundsException("Queue is not runing;");
+        return queue;
     }
 
     //----------------------------------------------------------------------------------------------
@@ -202,47 +436,48 @@ class TasksGroup implements Closeable {
      */
     @NotNull
     public
-    Back close(@Nullable Runnable runnable, int id) {
+    Back<Void> close(@Nullable Runnable runnable, int id) {
         // 获取队列
         var q = getQueue(id);
         // 加入关闭事件
         return q.close(() -> {
-            LOCK.write(() -> QUEUE.set(id, null));
+            LOCK.write(() -> {
+                QUEUE.set(id, null);
+                live();
+            });
             Optional.ofNullable(runnable).ifPresent(Runnable::run);
         });
     }
 
     /**
      * 关闭所有任务队列
+     * <p>
+     * 返回的反馈对象在所有队列都关闭后结束，等待时只需要等待该对象，不会依次等待每个队列<br/>
+     * 使用了时间轮时，所有队列关闭后一同关闭时间轮
      *
      * @param runnable 关闭处理
      *
      * @return 反馈对象
+     *
+     * @see Back#allOf(Back[])
      */
     @NotNull
     public
-    Back close(@Nullable Runnable runnable) {
+    Back<Void> close(@Nullable Runnable runnable) {
         var ids = LOCK.read(() -> IDS.toArray(Integer[]::new));
-        var backlist = new ArrayList<Back>(ids.length);
+        var backlist = new ArrayList<Back<Void>>(ids.length);
         // 追加关闭任务
         for ( Integer id : ids ){
             try {
-                backlist.add(close(runnable, id));
+                Optional.ofNullable(close(runnable, id)).ifPresent(backlist::add);
             } catch ( IndexOutOfBoundsException e ) {
                 // null
             }
         }
 
-        // 反馈对象
-        return new Back() {
-            final LinkedList<Back> BACKS = new LinkedList<>(backlist);
-
-            public
-            void sync() {
-                for ( var back = BACKS.poll(); back != null; back = BACKS.poll() )
-                    back.sync();
-            }
-        };
+        var back = Back.allOf(backlist.toArray(new Back<?>[0]));
+        Optional.ofNullable(TIMER).ifPresent(t -> back.onEnd(t::close));
+        return back;
     }
 
     @Override
@@ -262,8 +497,8 @@ class TasksGroup implements Closeable {
     public
     boolean hasTask() {
         var b = false;
-        for ( TaskQueue tasks : LOCK.read(() -> List.copyOf(QUEUE)) )
-            b |= (tasks != null && tasks.hasTask());
+        for ( TaskQueue tasks : LIVE )
+            b |= tasks.hasTask();
         return b;
     }
 
@@ -281,8 +516,8 @@ class TasksGroup implements Closeable {
     public
     boolean hasClose() {
         var b = false;
-        for ( TaskQueue tasks : LOCK.read(() -> List.copyOf(QUEUE)) )
-            b |= (tasks != null && tasks.isClose());
+        for ( TaskQueue tasks : LIVE )
+            b |= tasks.isClose();
         return b;
     }
 
@@ -294,6 +529,20 @@ class TasksGroup implements Closeable {
     public
     boolean isClose(int id) { return getQueue(id).isClose(); }
 
+    /**
+     * 获取组内队列共用的时间轮
+     * <p>
+     * 可用于任务的超时处理，例如 {@code timer().schedule(back::cancel, 1, TimeUnit.SECONDS)}
+     *
+     * @return 未启用时返回 null
+     *
+     * @see Build#timer()
+     * @since TasksGroup 0.0.2
+     */
+    @Nullable
+    public
+    TimerWheel timer() { return TIMER; }
+
     //----------------------------------------------------------------------------------------------
 
     /** 获取构造工具 */
@@ -308,9 +557,13 @@ class TasksGroup implements Closeable {
      * {@link #idRollBack()} 启用 id 回滚功能
      * {@link #runcall(Consumer)} 注册队列任务处理监听
      * {@link #closecall(Runnable)} 注册队列关闭监听
+     * {@link #workSteal()} 启用任务窃取
+     * {@link #route(TaskRoute)} 设置任务分配策略
+     * {@link #virtual()} 使用虚拟线程
+     * {@link #timer()} 使用时间轮
      *
      * @author fybug
-     * @version 0.0.1
+     * @version 0.0.2
      * @since TaskQueue 0.0.1
      */
     @Accessors( chain = true, fluent = true )
@@ -321,6 +574,17 @@ class TasksGroup implements Closeable {
         @Setter private Consumer<Runnable> runcall = null;
         /** 队列关闭监听 */
         @Setter private Runnable closecall = null;
+        private boolean workSteal = false;
+        private boolean virtual = false;
+        private boolean timer = false;
+        /**
+         * 任务分配策略
+         * <p>
+         * 未指定队列 id 添加任务时使用，默认为 {@link TaskRoute#random()}
+         */
+        @Setter
+        @Nullable
+        private TaskRoute route = null;
 
         /** 启用 id 回滚 */
         @NotNull
@@ -330,10 +594,57 @@ class TasksGroup implements Closeable {
             return this;
         }
 
+        /**
+         * 启用任务窃取
+         * <p>
+         * 空闲的队列会从其他队列的尾部窃取未指定 id 加入的任务
+         *
+         * @since Build 0.0.2
+         */
+        @NotNull
+        public
+        Build workSteal() {
+            workSteal = true;
+            return this;
+        }
+
+        /**
+         * 使用虚拟线程
+         * <p>
+         * 通过 {@link TasksGroup#addQueue()} 追加的队列使用虚拟线程运行，需要运行在 JDK 21 及以上
+         *
+         * @throws UnsupportedOperationException 运行环境不支持虚拟线程时
+         * @see TaskQueue#supportVirtual()
+         * @since Build 0.0.2
+         */
+        @NotNull
+        public
+        Build virtual() {
+            if (!TaskQueue.supportVirtual())
+                throw new UnsupportedOperationException("virtual threads require JDK 21 or later");
+            virtual = true;
+            return this;
+        }
+
+        /**
+         * 使用时间轮
+         * <p>
+         * 任务组创建一个时间轮，通过 {@link TasksGroup#addQueue()} 和 {@link TasksGroup#addQueue(ExecutorService)} 追加的队列共用该时间轮处理延迟任务<br/>
+         * 时间轮在通过 {@link TasksGroup#close(Runnable)} 关闭所有队列后关闭
+         *
+         * @see TimerWheel
+         * @since Build 0.0.2
+         */
+        @NotNull
+        public
+        Build timer() {
+            timer = true;
+            return this;
+        }
+
         /** 构造任务队列 */
         @NotNull
         public
-        TasksGroup build()
-        { return new TasksGroup(id_Rollback ? new HashSet<>() : null, runcall, closecall); }
+        TasksGroup build() { return new TasksGroup(id_Rollback ? new HashSet<>() : null, this); }
     }
 }
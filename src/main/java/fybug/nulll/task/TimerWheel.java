@@ -0,0 +1,329 @@
+package fybug.nulll.task;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <h2>哈希时间轮.</h2>
+ * <p>
+ * 将时间按照固定的刻度划分到环形的槽中，定时任务按照到期的刻度放入对应的槽，超过一圈的任务记录剩余的圈数<br/>
+ * 加入和取消都是 O(1) 的操作，不受定时任务数量的影响，适合大量的延迟任务和超时检查
+ * <br/><br/>
+ * 由一个单独的刻度线程驱动，每个刻度处理一个槽中到期的任务，到期的任务直接在刻度线程中运行，因此只应该做转交任务或取消这样的轻量操作<br/>
+ * 加入和取消都先放入无锁队列，由刻度线程在下一个刻度统一处理，调用线程不需要上锁<br/>
+ * 没有定时任务时刻度线程会进入等待，不会空转
+ * <br/><br/>
+ * 精度为一个刻度，定时任务只会延后执行，不会提前执行<br/>
+ * 可通过 {@link TaskQueue.Build#timer(TimerWheel)} 让队列的延迟任务使用时间轮，或通过 {@link TasksGroup.Build#timer()} 让任务组中的所有队列共用一个时间轮<br/>
+ * 也可以直接用于超时处理，例如 {@code timer.schedule(back::cancel, 1, TimeUnit.SECONDS)}
+ *
+ * @author fybug
+ * @version 0.0.1
+ * @see TaskQueue#addtask(Runnable, long, TimeUnit)
+ * @since PDTasks 0.0.3
+ */
+public final
+class TimerWheel implements Closeable {
+    /** 刻度时长，纳秒 */
+    private final long TICK;
+    /** 槽位，数量为 2 的幂 */
+    @NotNull private final Bucket[] WHEEL;
+    /** 槽位下标掩码 */
+    private final int MASK;
+    /** 时间轮的起始时间 */
+    private final long START;
+
+    /** 等待放入槽中的定时任务 */
+    @NotNull private final MpscQueue<Timeout> PENDING = new MpscQueue<>();
+    /** 等待从槽中移除的定时任务 */
+    @NotNull private final MpscQueue<Timeout> CANCELLED = new MpscQueue<>();
+    /** 刻度线程 */
+    @NotNull private final Thread WORKER;
+    /** 是否关闭 */
+    private volatile boolean CLOSE = false;
+    /** 刻度线程是否进入等待 */
+    private volatile boolean PARKED = false;
+
+    /** 已经处理的刻度数，只由刻度线程访问 */
+    private long TICKS = 0;
+    /** 槽中的定时任务数，只由刻度线程访问 */
+    private int COUNT = 0;
+
+    //----------------------------------------------------------------------------------------------
+
+    /** 构造刻度为 1 毫秒，512 个槽位的时间轮 */
+    public
+    TimerWheel() { this(1, TimeUnit.MILLISECONDS, 512); }
+
+    /**
+     * 构造时间轮
+     *
+     * @param tick 刻度时长
+     * @param unit 时间单位
+     * @param size 槽位数量，会向上取整到 2 的幂
+     *
+     * @throws IllegalArgumentException 刻度或槽位数量小于等于 0
+     */
+    public
+    TimerWheel(long tick, @NotNull TimeUnit unit, int size) {
+        if (tick <= 0)
+            throw new IllegalArgumentException("'tick' must be greater than 0");
+        if (size <= 0 || size > 1 << 30)
+            throw new IllegalArgumentException("'size' must be in [1, 2^30]");
+
+        TICK = unit.toNanos(tick);
+        var n = Integer.highestOneBit(size);
+        WHEEL = new Bucket[n < size ? n << 1 : n];
+        for ( int i = 0; i < WHEEL.length; i++ )
+            WHEEL[i] = new Bucket();
+        MASK = WHEEL.length - 1;
+        START = System.nanoTime();
+
+        WORKER = new Thread(this::work, "TimerWheel");
+        WORKER.setDaemon(true);
+        WORKER.start();
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 加入定时任务
+     *
+     * @param task  到期后运行的任务，在刻度线程中运行，抛出的异常只会打印
+     * @param delay 延迟时间
+     * @param unit  时间单位
+     *
+     * @return 定时任务，可通过 {@link Timeout#cancel()} 取消
+     *
+     * @throws IllegalStateException 时间轮已关闭
+     */
+    @NotNull
+    public
+    Timeout schedule(@NotNull Runnable task, long delay, @NotNull TimeUnit unit) {
+        if (CLOSE)
+            throw new IllegalStateException("TimerWheel is closed");
+
+        // 防止溢出
+        var nanos = Math.min(Math.max(unit.toNanos(delay), 0), Long.MAX_VALUE >> 1);
+        var timeout = new Timeout(this, task, System.nanoTime() - START + nanos);
+        PENDING.offer(timeout);
+        if (PARKED)
+            LockSupport.unpark(WORKER);
+        return timeout;
+    }
+
+    /**
+     * 关闭时间轮
+     * <p>
+     * 刻度线程会在当前刻度结束后退出，还未到期的定时任务不会再运行
+     */
+    @Override
+    public
+    void close() {
+        CLOSE = true;
+        LockSupport.unpark(WORKER);
+    }
+
+    /** 是否已经关闭 */
+    public
+    boolean isClose() { return CLOSE; }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 刻度线程代码
+     * <p>
+     * 等待到下一个刻度后依次处理取消、加入并运行当前槽中到期的任务<br/>
+     * 没有任何定时任务时进入等待，恢复时直接跳到当前的刻度
+     */
+    private
+    void work() {
+        while( !CLOSE ){
+            if (COUNT == 0 && PENDING.isEmpty()) {
+                // 先标记等待再检查，保证不会错过唤醒
+                PARKED = true;
+                if (PENDING.isEmpty() && !CLOSE)
+                    LockSupport.park(this);
+                PARKED = false;
+                // 空闲期间的刻度没有任务，直接跳过
+                TICKS = Math.max(TICKS, (System.nanoTime() - START) / TICK);
+                continue;
+            }
+
+            // 等待到刻度结束
+            var deadline = (TICKS + 1) * TICK;
+            for ( long remain; (remain = deadline - (System.nanoTime() - START)) > 0 && !CLOSE; )
+                LockSupport.parkNanos(this, remain);
+            if (CLOSE)
+                break;
+
+            removeCancelled();
+            transferPending();
+            WHEEL[(int) (TICKS & MASK)].expire();
+            TICKS++;
+        }
+    }
+
+    /** 将取消的定时任务从槽中移除 */
+    private
+    void removeCancelled() {
+        for ( Timeout t; (t = CANCELLED.poll()) != null; ){
+            if (t.bucket != null) {
+                t.bucket.remove(t);
+                COUNT--;
+            }
+        }
+    }
+
+    /** 将新加入的定时任务放入对应的槽 */
+    private
+    void transferPending() {
+        for ( Timeout t; (t = PENDING.poll()) != null; ){
+            if (t.state != Timeout.WAITING)
+                continue;
+
+            // 到期时间已经过去的放入当前刻度
+            var ticks = Math.max(t.deadline / TICK, TICKS);
+            t.rounds = (ticks - TICKS) / WHEEL.length;
+            WHEEL[(int) (ticks & MASK)].add(t);
+            COUNT++;
+        }
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    /**
+     * <h2>定时任务.</h2>
+     * <p>
+     * 通过 {@link #cancel()} 取消，取消后不会再运行
+     */
+    public static final
+    class Timeout {
+        private static final VarHandle STATE;
+
+        static {
+            try {
+                STATE = MethodHandles.lookup().findVarHandle(Timeout.class, "state", int.class);
+            } catch ( ReflectiveOperationException e ) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        /** 等待到期 */
+        private static final int WAITING = 0;
+        /** 已取消 */
+        private static final int CANCELLED = 1;
+        /** 已到期 */
+        private static final int EXPIRED = 2;
+
+        /** 所属的时间轮 */
+        @NotNull private final TimerWheel wheel;
+        /** 到期运行的任务 */
+        @NotNull private final Runnable task;
+        /** 到期时间，相对于时间轮的起始时间 */
+        private final long deadline;
+        /** 当前状态 */
+        private volatile int state = WAITING;
+
+        /** 剩余的圈数，只由刻度线程访问 */
+        private long rounds;
+        /** 所在的槽，只由刻度线程访问 */
+        @Nullable private Bucket bucket;
+        /** 槽中的前后节点，只由刻度线程访问 */
+        @Nullable private Timeout prev, next;
+
+        private
+        Timeout(@NotNull TimerWheel wheel, @NotNull Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消定时任务
+         * <p>
+         * 只做一次原子操作并放入取消队列，由刻度线程在下一个刻度从槽中移除
+         *
+         * @return 是否取消成功，已经到期或已经取消时返回 false
+         */
+        public
+        boolean cancel() {
+            if (!STATE.compareAndSet(this, WAITING, CANCELLED))
+                return false;
+            wheel.CANCELLED.offer(this);
+            return true;
+        }
+
+        /** 是否已经取消 */
+        public
+        boolean isCancelled() { return state == CANCELLED; }
+
+        /** 是否已经到期 */
+        public
+        boolean isExpired() { return state == EXPIRED; }
+
+        /** 到期运行 */
+        private
+        void expire() {
+            if (!STATE.compareAndSet(this, WAITING, EXPIRED))
+                return;
+            try {
+                task.run();
+            } catch ( RuntimeException e ) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** 槽，双向链表，只由刻度线程访问 */
+    private final
+    class Bucket {
+        @Nullable private Timeout head, tail;
+
+        /** 加入定时任务 */
+        void add(@NotNull Timeout t) {
+            t.bucket = this;
+            t.prev = tail;
+            if (tail == null)
+                head = t;
+            else
+                tail.next = t;
+            tail = t;
+        }
+
+        /** 移除定时任务 */
+        void remove(@NotNull Timeout t) {
+            if (t.bucket != this)
+                return;
+            if (t.prev == null)
+                head = t.next;
+            else
+                t.prev.next = t.next;
+            if (t.next == null)
+                tail = t.prev;
+            else
+                t.next.prev = t.prev;
+            t.prev = t.next = null;
+            t.bucket = null;
+        }
+
+        /** 运行到期的定时任务，未到期的减少一圈 */
+        void expire() {
+            for ( Timeout t = head, next; t != null; t = next ){
+                next = t.next;
+                if (t.rounds > 0) {
+                    t.rounds--;
+                    continue;
+                }
+                remove(t);
+                COUNT--;
+                t.expire();
+            }
+        }
+    }
+}
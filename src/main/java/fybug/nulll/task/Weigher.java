@@ -0,0 +1,56 @@
+package fybug.nulll.task;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <h2>任务重量估算.</h2>
+ * <p>
+ * 用于 {@link TaskQueue.Build#maxWeight(long)} 按照估算的内存占用限制队列，传入的对象为加入队列的 {@link Runnable} 或 {@link java.util.concurrent.Callable}<br/>
+ * 在添加任务时上锁调用，每个任务只调用一次，不应进行耗时的计算
+ * <br/><br/>
+ * 任务本身也可以实现 {@link Weighted} 提供自己的重量，默认的估算方式 {@link #weighted()} 只读取该接口
+ *
+ * @author fybug
+ * @version 0.0.1
+ * @see TaskQueue.Build#weigher(Weigher)
+ * @since PDTasks 0.0.3
+ */
+@FunctionalInterface
+public
+interface Weigher {
+    /**
+     * 估算任务的重量
+     *
+     * @param task 任务对象
+     *
+     * @return 任务的重量，通常为字节数，不能小于 0
+     */
+    long weigh(@Nullable Object task);
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 读取任务实现的 {@link Weighted}
+     * <p>
+     * 没有实现该接口的任务重量为 0，不受重量限制
+     */
+    @NotNull
+    static
+    Weigher weighted() { return task -> task instanceof Weighted ? ((Weighted) task).weight() : 0; }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    /**
+     * <h2>带有重量的任务.</h2>
+     * <p>
+     * 由任务对象实现，用于提供任务的重量，例如任务携带的数据大小
+     *
+     * @author fybug
+     * @version 0.0.1
+     * @since Weigher 0.0.1
+     */
+    interface Weighted {
+        /** @return 任务的重量，通常为字节数，不能小于 0 */
+        long weight();
+    }
+}
@@ -1,11 +1,22 @@
 package fybug.nulll.task.serializable;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.Externalizable;
 import java.io.IOException;
+import java.io.InvalidClassException;
 import java.io.ObjectInput;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
@@ -16,6 +27,7 @@ import fybug.nulll.pdconcurrent.SyLock;
 import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
 
@@ -29,18 +41,31 @@ import static java.nio.file.StandardOpenOption.WRITE;
  * <br/><br/>
  * 定义了两个用于保存序列化文件和删除序列化文件的方法 {@link #save1()} 和 {@link #delte1()}，这两个方法都是没有上锁且只能继承类调用<br/>
  * 调用时根据情况上锁，一般情况下上读锁，因为这两个方法没有修改任何参数<br/>
- * 需要内部的锁时调用 {@link #getLOCK()} 获取
+ * 需要内部的锁时调用 {@link #getLOCK()} 获取<br/>
+ * 可通过 {@link #setDurability(Durability)} 设置保存后何时同步到磁盘，默认不主动同步
  * <br/><br/>
  * 同时建议重写 {@link #writeExternal(ObjectOutput)} 和 {@link #readExternal(ObjectInput)} 方法，但是要记住调用父方法<br/>
  * {@code super.writeExternal(out);} 和 {@code super.readExternal(out);} 必不可少，因为原本的方法中已经对部分参数进行序列化，忽略会导致序列化功能在后续无法正常调用，同时也会导致内置的锁 {@link #LOCK} 无法使用
+ * <br/><br/>
+ * 继承类可以重写 {@link #binary()} 改为使用二进制格式保存，此时通过 {@link #writeBinary(DataOutput)} 和 {@link #readBinary(DataInput)} 读写参数，同样需要调用父方法<br/>
+ * 二进制格式的文件以 {@link #MAGIC} 开头，随后为格式版本和类的名称，{@link #read1(Path, Class)} 根据开头自动识别两种格式
  *
  * @author fybug
- * @version 0.0.1
+ * @version 0.0.4
  * @see Externalizable
  * @since serializable 0.0.1
  */
 public abstract
 class CanSerializable implements Externalizable {
+    /**
+     * 二进制格式的文件头，"PDTS"
+     *
+     * @since CanSerializable 0.0.4
+     */
+    protected static final int MAGIC = 0x50445453;
+    /** 二进制格式的版本 */
+    private static final byte FORMAT = 1;
+
     /** 序列化文件保存的路径 */
     @NotNull protected String path = "";
     /** 序列化文件的保存名称 */
@@ -49,6 +74,12 @@ class CanSerializable implements Externalizable {
     @NotNull protected String filenametmp = "";
     /** 该对象的并发锁 */
     @NotNull protected transient RWLock LOCK = SyLock.newRWLock();
+    /**
+     * 同步策略
+     *
+     * @since CanSerializable 0.0.3
+     */
+    @NotNull protected transient Durability durability = Durability.none();
 
     //----------------------------------------------------------------------------------------------
 
@@ -59,6 +90,16 @@ class CanSerializable implements Externalizable {
     public
     CanSerializable(@NotNull String path, @NotNull String filenamne) { setPath(path, filenamne); }
 
+    /**
+     * 用于反序列化
+     * <p>
+     * {@link Externalizable} 反序列化时需要无参构造器，路径参数由 {@link #readExternal(ObjectInput)} 恢复
+     *
+     * @since CanSerializable 0.0.2
+     */
+    protected
+    CanSerializable() {}
+
     //----------------------------------------------------------------------------------------------
 
     /**
@@ -112,6 +153,26 @@ class CanSerializable implements Externalizable {
     public
     RWLock getLOCK() { return LOCK; }
 
+    /**
+     * 设置同步策略
+     *
+     * @param durability 保存后何时同步到磁盘，整个文件的保存只区分是否同步，分组同步只作用于追加写入的日志
+     *
+     * @see Durability
+     * @since CanSerializable 0.0.3
+     */
+    public
+    void setDurability(@NotNull Durability durability) { LOCK.write(() -> this.durability = durability); }
+
+    /**
+     * @return 同步策略
+     *
+     * @since CanSerializable 0.0.3
+     */
+    @NotNull
+    public
+    Durability getDurability() { return LOCK.read(() -> durability); }
+
     //----------------------------------------------------------------------------------------------
 
     /**
@@ -120,6 +181,9 @@ class CanSerializable implements Externalizable {
      * 该方法没有加锁，使用时建议外部加一层读锁，因为只用到了 {@link #path} 和 {@link #filename}
      * <p>
      * 该方法写入时会先创建一个在原本的路径上加上 ".tmp" 后缀的临时文件，在写入完成后会重命名为指定的名称，使用经典的移动文件来重命名并覆盖原本的文件（如果有
+     * <p>
+     * 同步策略不是 {@link Durability#none()} 时总是在重命名前同步临时文件，并在重命名后同步所在的目录<br/>
+     * 整个文件的保存不使用分组同步，否则未同步的临时文件会覆盖上一次已经同步的文件，系统崩溃时整个文件都可能丢失
      *
      * @see #path
      * @see #filename
@@ -131,19 +195,36 @@ class CanSerializable implements Externalizable {
         var files = Path.of(path, filename);
         // 临时文件
         var tmpfiles = Path.of(path, filenametmp);
+        // 是否同步
+        var sync = durability.isSync();
 
         // 保证目录存在
         Files.createDirectories(files.getParent());
         // 打开输出流
-        ObjectOutputStream outputStream =
-                new ObjectOutputStream(Files.newOutputStream(tmpfiles, WRITE, TRUNCATE_EXISTING, CREATE));
-        // 输出到临时文件
-        outputStream.writeObject(this);
-        outputStream.flush();
-        outputStream.close();
+        try ( var channel = FileChannel.open(tmpfiles, WRITE, TRUNCATE_EXISTING, CREATE) ) {
+            // 输出到临时文件
+            if (binary()) {
+                var outputStream = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                outputStream.writeInt(MAGIC);
+                outputStream.writeByte(FORMAT);
+                outputStream.writeUTF(getClass().getName());
+                writeBinary(outputStream);
+                outputStream.flush();
+            } else {
+                var outputStream = new ObjectOutputStream(Channels.newOutputStream(channel));
+                outputStream.writeObject(this);
+                outputStream.flush();
+            }
+
+            if (sync)
+                channel.force(true);
+        }
 
         // 移动临时文件为正式保存的文件
         Files.move(tmpfiles, files, REPLACE_EXISTING, ATOMIC_MOVE);
+        // 重命名同样需要同步目录才能保留
+        if (sync)
+            syncDirectory(files.getParent());
     }
 
     /**
@@ -175,6 +256,24 @@ class CanSerializable implements Externalizable {
     boolean deltetmp1() throws IOException
     { return Files.deleteIfExists(Path.of(path, filenametmp)); }
 
+    /**
+     * 同步目录
+     * <p>
+     * 保证目录中新建和重命名的文件在系统崩溃后依旧存在，不支持打开目录的系统上不做处理
+     *
+     * @param dir 要同步的目录
+     *
+     * @since CanSerializable 0.0.3
+     */
+    protected static
+    void syncDirectory(@NotNull Path dir) {
+        try ( var channel = FileChannel.open(dir, READ) ) {
+            channel.force(true);
+        } catch ( IOException e ) {
+            // 部分系统不支持同步目录
+        }
+    }
+
     //----------------------------------------------------------------------------------------------
 
     @Override
@@ -189,6 +288,92 @@ class CanSerializable implements Externalizable {
     void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
         this.path = in.readObject().toString();
         this.filename = in.readObject().toString();
+        this.filenametmp = filename + '.' + 't' + 'm' + 'p';
         this.LOCK = SyLock.newRWLock();
     }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 是否使用二进制格式保存
+     * <p>
+     * 默认为 false，使用 java 序列化
+     *
+     * @see #writeBinary(DataOutput)
+     * @see #readBinary(DataInput)
+     * @since CanSerializable 0.0.4
+     */
+    protected
+    boolean binary() { return false; }
+
+    /**
+     * 以二进制格式写入参数
+     *
+     * @param out 输出
+     *
+     * @since CanSerializable 0.0.4
+     */
+    protected
+    void writeBinary(@NotNull DataOutput out) throws IOException {
+        out.writeUTF(path);
+        out.writeUTF(filename);
+    }
+
+    /**
+     * 读取二进制格式的参数
+     *
+     * @param in 输入
+     *
+     * @since CanSerializable 0.0.4
+     */
+    protected
+    void readBinary(@NotNull DataInput in) throws IOException, ClassNotFoundException {
+        this.path = in.readUTF();
+        this.filename = in.readUTF();
+        this.filenametmp = filename + '.' + 't' + 'm' + 'p';
+    }
+
+    /**
+     * 读取保存的文件
+     * <p>
+     * 根据文件开头识别二进制格式和 java 序列化格式，二进制格式通过类的无参构造器构造后调用 {@link #readBinary(DataInput)}
+     *
+     * @param files 保存的文件
+     * @param type  要读取的类型
+     *
+     * @return 读取的对象
+     *
+     * @throws InvalidClassException 文件中的类不是 type 或无法构造
+     * @since CanSerializable 0.0.4
+     */
+    @NotNull
+    protected static
+    <T extends CanSerializable> T read1(@NotNull Path files, @NotNull Class<T> type)
+    throws IOException, ClassNotFoundException
+    {
+        try ( var stream = new BufferedInputStream(Files.newInputStream(files, READ)) ) {
+            // 检查文件头
+            stream.mark(Integer.BYTES);
+            var in = new DataInputStream(stream);
+            if (in.readInt() != MAGIC) {
+                stream.reset();
+                return type.cast(new ObjectInputStream(stream).readObject());
+            }
+
+            if (in.readByte() != FORMAT)
+                throw new StreamCorruptedException("Unsupported format version");
+            var name = in.readUTF();
+            var c = Class.forName(name, false, type.getClassLoader());
+            T a;
+            try {
+                a = c.asSubclass(type).getConstructor().newInstance();
+            } catch ( ReflectiveOperationException | ClassCastException e ) {
+                var ex = new InvalidClassException(name, "cannot be constructed as " + type.getName());
+                ex.initCause(e);
+                throw ex;
+            }
+            a.readBinary(in);
+            return a;
+        }
+    }
 }
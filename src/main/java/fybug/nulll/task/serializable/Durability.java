@@ -0,0 +1,101 @@
+package fybug.nulll.task.serializable;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>持久化的同步策略.</h2>
+ * <p>
+ * 决定写入的文件何时通过 {@link java.nio.channels.FileChannel#force(boolean)} 同步到磁盘，用于在吞吐量和系统崩溃后丢失的进度之间取舍
+ * <br/><br/>
+ * 内置的策略：<br/>
+ * {@link #none()} 不主动同步，由操作系统决定何时写入磁盘，最快但系统崩溃时可能丢失最近的保存<br/>
+ * {@link #sync()} 每次写入都同步，写入返回后即不会丢失<br/>
+ * {@link #group(int, long, TimeUnit)} 攒够指定数量的记录或超过指定时间后同步一次，崩溃时最多丢失一组记录
+ * <br/><br/>
+ * 分组同步只作用于追加写入的日志，例如 {@link TaskStorage#setJournal(boolean)} 的执行日志和 {@link TaskLog} 的记录<br/>
+ * 通过 {@link CanSerializable#save1()} 整个保存的文件在该策略下与 {@link #sync()} 相同，每次都会同步，防止未同步的文件替换掉上一次已经同步的文件
+ * <br/><br/>
+ * 不会单独启动线程，时间到期后在下一次写入时同步
+ *
+ * @author fybug
+ * @version 0.0.2
+ * @see CanSerializable#setDurability(Durability)
+ * @since serializable 0.0.2
+ */
+public final
+class Durability {
+    /** 不同步 */
+    @NotNull private static final Durability NONE = new Durability(0, 0);
+    /** 每次都同步 */
+    @NotNull private static final Durability SYNC = new Durability(1, 0);
+
+    /** 触发同步的记录数，为 0 时不按数量同步 */
+    private final int records;
+    /** 触发同步的时长，纳秒，为 0 时不按时间同步 */
+    private final long nanos;
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * @param records 触发同步的记录数
+     * @param nanos   触发同步的时长
+     */
+    private
+    Durability(int records, long nanos) {
+        this.records = records;
+        this.nanos = nanos;
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /** 不主动同步 */
+    @NotNull
+    public static
+    Durability none() { return NONE; }
+
+    /** 每次写入都同步 */
+    @NotNull
+    public static
+    Durability sync() { return SYNC; }
+
+    /**
+     * 分组同步
+     * <p>
+     * 未同步的记录达到 records 条，或距离上次同步超过 time 时同步，两个条件任意一个为 0 时不使用该条件<br/>
+     * 只作用于追加写入的日志，整个文件的保存每次都会同步
+     *
+     * @param records 触发同步的记录数
+     * @param time    触发同步的时长
+     * @param unit    时间单位
+     *
+     * @throws IllegalArgumentException 参数为负数或都为 0 时
+     */
+    @NotNull
+    public static
+    Durability group(int records, long time, @NotNull TimeUnit unit) {
+        if (records < 0 || time < 0)
+            throw new IllegalArgumentException("'records' and 'time' must not be negative");
+        if (records == 0 && time == 0)
+            throw new IllegalArgumentException("'records' and 'time' cannot both be 0");
+        return new Durability(records, unit.toNanos(time));
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /** 是否会同步 */
+    public
+    boolean isSync() { return this != NONE; }
+
+    /**
+     * 是否需要同步
+     *
+     * @param pending  未同步的记录数
+     * @param syncedAt 上次同步的时间，{@link System#nanoTime()}
+     */
+    boolean due(int pending, long syncedAt) {
+        if (pending <= 0 || this == NONE)
+            return false;
+        return (records > 0 && pending >= records) || (nanos > 0 && System.nanoTime() - syncedAt >= nanos);
+    }
+}
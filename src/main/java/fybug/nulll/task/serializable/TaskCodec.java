@@ -0,0 +1,53 @@
+package fybug.nulll.task.serializable;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * <h2>任务编码器.</h2>
+ * <p>
+ * 用于将 {@link TaskMedium} 写为紧凑的二进制内容，代替 java 序列化<br/>
+ * 通过 {@link TaskCodecs#register(Class, TaskCodec)} 为指定的任务类注册后，{@link TaskSpill} 和 {@link TaskLog} 保存该类的任务时都会使用该编码器，
+ * 没有注册的任务依旧使用 java 序列化<br/>
+ * {@link TaskStorage} 只在所有任务都注册了编码器时使用编码器，否则整体进行 java 序列化
+ * <br/><br/>
+ * 编码的内容会单独记录长度，解码时只能读取 {@link #encode(TaskMedium, DataOutput)} 写入的内容
+ * <br/>
+ * <pre>示例：
+ * TaskCodecs.register(PrintTask.class, new TaskCodec&lt;&gt;() {
+ *     public
+ *     void encode(PrintTask task, DataOutput out) throws IOException { out.writeUTF(task.text); }
+ *
+ *     public
+ *     PrintTask decode(DataInput in) throws IOException { return new PrintTask(in.readUTF()); }
+ * });</pre>
+ *
+ * @param <T> 任务的类型
+ *
+ * @author fybug
+ * @version 0.0.1
+ * @see TaskCodecs
+ * @since serializable 0.0.2
+ */
+public
+interface TaskCodec<T extends TaskMedium> {
+    /**
+     * 写入任务
+     *
+     * @param task 要写入的任务
+     * @param out  输出
+     */
+    void encode(@NotNull T task, @NotNull DataOutput out) throws IOException;
+
+    /**
+     * 读取任务
+     *
+     * @param in 输入，只包含该任务的内容
+     *
+     * @return 读取的任务
+     */
+    @NotNull
+    T decode(@NotNull DataInput in) throws IOException;
+}
@@ -0,0 +1,183 @@
+package fybug.nulll.task.serializable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <h2>任务编码器注册表.</h2>
+ * <p>
+ * 按照任务类的名称保存 {@link TaskCodec}，只匹配完全相同的类，子类需要单独注册<br/>
+ * 保存的文件中只记录类的名称，读取时需要注册相同的编码器
+ * <br/><br/>
+ * 类型名称为空字符串表示使用 java 序列化<br/>
+ * 写入时先通过 {@link #codecOf(TaskMedium)} 取出一次编码器，类型名称和编码都使用同一个编码器，写入期间注销编码器也不会写出无法读取的记录
+ *
+ * @author fybug
+ * @version 0.0.2
+ * @see TaskCodec
+ * @since serializable 0.0.2
+ */
+public final
+class TaskCodecs {
+    /** 使用 java 序列化的类型名称 */
+    @NotNull static final String JAVA = "";
+    /** 已注册的编码器 */
+    @NotNull private static final Map<String, TaskCodec<?>> CODECS = new ConcurrentHashMap<>();
+
+    private
+    TaskCodecs() {}
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 注册编码器
+     *
+     * @param type  任务类
+     * @param codec 该类的编码器，会覆盖之前注册的编码器
+     */
+    public static
+    <T extends TaskMedium> void register(@NotNull Class<T> type, @NotNull TaskCodec<T> codec)
+    { CODECS.put(type.getName(), codec); }
+
+    /**
+     * 移除编码器
+     *
+     * @param type 任务类
+     *
+     * @return 是否移除成功
+     */
+    public static
+    boolean unregister(@NotNull Class<? extends TaskMedium> type) { return CODECS.remove(type.getName()) != null; }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 获取任务的编码器
+     *
+     * @param task 任务
+     *
+     * @return 没有注册编码器时返回 null，此时使用 java 序列化
+     *
+     * @since TaskCodecs 0.0.2
+     */
+    @Nullable
+    @SuppressWarnings( "unchecked" )
+    static
+    TaskCodec<TaskMedium> codecOf(@NotNull TaskMedium task)
+    { return (TaskCodec<TaskMedium>) CODECS.get(task.getClass().getName()); }
+
+    /**
+     * 获取任务保存时的类型名称
+     *
+     * @param task  任务
+     * @param codec 通过 {@link #codecOf(TaskMedium)} 获取的编码器
+     *
+     * @return 有编码器时为类的名称，否则为 {@link #JAVA}
+     */
+    @NotNull
+    static
+    String typeOf(@NotNull TaskMedium task, @Nullable TaskCodec<TaskMedium> codec)
+    { return codec == null ? JAVA : task.getClass().getName(); }
+
+    /**
+     * 编码任务
+     *
+     * @param task  任务
+     * @param codec 通过 {@link #codecOf(TaskMedium)} 获取的编码器，为 null 时使用 java 序列化
+     *
+     * @return 编码后的内容
+     */
+    @NotNull
+    static
+    byte[] encode(@NotNull TaskMedium task, @Nullable TaskCodec<TaskMedium> codec) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        if (codec == null) {
+            try ( var out = new ObjectOutputStream(bytes) ) {
+                out.writeObject(task);
+            }
+        } else {
+            var out = new DataOutputStream(bytes);
+            codec.encode(task, out);
+            out.flush();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 解码任务
+     *
+     * @param type  类型名称
+     * @param bytes 编码后的内容
+     *
+     * @return 解码的任务
+     *
+     * @throws InvalidClassException  该类型没有注册编码器
+     * @throws ClassNotFoundException java 序列化的任务类不存在
+     */
+    @NotNull
+    static
+    TaskMedium decode(@NotNull String type, @NotNull byte[] bytes) throws IOException, ClassNotFoundException {
+        if (type.equals(JAVA)) {
+            try ( var in = new ObjectInputStream(new ByteArrayInputStream(bytes)) ) {
+                return (TaskMedium) in.readObject();
+            }
+        }
+
+        var codec = CODECS.get(type);
+        if (codec == null)
+            throw new InvalidClassException(type, "no TaskCodec registered");
+        return codec.decode(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 写入变长的非负整数
+     * <p>
+     * 每个字节保存 7 位，最高位表示后面是否还有字节，小于 128 的数只占一个字节
+     *
+     * @param out 输出
+     * @param n   要写入的数，不能为负数
+     */
+    static
+    void writeVarInt(@NotNull DataOutput out, int n) throws IOException {
+        while( (n & ~0x7F) != 0 ){
+            out.writeByte((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        out.writeByte(n);
+    }
+
+    /**
+     * 读取变长的非负整数
+     *
+     * @param in 输入
+     *
+     * @throws StreamCorruptedException 内容超过了 int 的范围
+     * @see #writeVarInt(DataOutput, int)
+     */
+    static
+    int readVarInt(@NotNull DataInput in) throws IOException {
+        var n = 0;
+        for ( int shift = 0; shift < 32; shift += 7 ){
+            var b = in.readByte();
+            n |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return n;
+        }
+        throw new StreamCorruptedException("Invalid var int");
+    }
+}
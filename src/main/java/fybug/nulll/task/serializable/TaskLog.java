@@ -0,0 +1,723 @@
+package fybug.nulll.task.serializable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+import fybug.nulll.pdconcurrent.RWLock;
+import fybug.nulll.pdconcurrent.SyLock;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * <h2>内存映射的任务日志.</h2>
+ * <p>
+ * 与 {@link TaskStorage} 相同按照加入顺序执行任务，并记录执行到的位置，适合非常大的任务列表<br/>
+ * 任务不再整体序列化为一个文件，而是在加入时直接追加到内存映射的分段文件中，执行进度也直接写入映射的文件头，每次写入都是 O(1) 的操作
+ * <br/><br/>
+ * 分段文件保存在 {@link #path} 目录下，名称为 {@link #filename} 加上 "." 和分段的序号，每个分段的大小固定，写满后创建下一个分段<br/>
+ * 每个分段以 16 字节的文件头开始，文件头中记录分段大小，第一个分段的文件头中还记录执行进度，随后为记录：<br/>
+ * 4 字节的长度和 4 字节的 CRC32 校验值，长度为正数时为任务记录，内容为变长整数的类型序号和任务内容，任务内容使用 {@link TaskCodec} 编码，没有编码器的任务单独进行 java 序列化<br/>
+ * 长度为负数时为类型记录，内容为类型名称，类型序号按照出现顺序分配，每种类型只记录一次<br/>
+ * 长度为 0 时表示分段结束，长度总是在内容和校验值写入后才写入
+ * <br/><br/>
+ * 映射的内存写回磁盘时不保证顺序，系统崩溃后长度可能已经写入而内容没有，恢复时校验值不匹配的记录视为日志的末尾，之后的记录和分段都会被丢弃<br/>
+ * 也可能长度丢失而之后的记录保留了下来，恢复时最后一个分段中末尾之后的残留内容会被清除，新的记录不会接上旧的记录<br/>
+ * 通过 {@link #readTaskLog(String, String)} 恢复时只映射文件并记录每个任务的位置，不会解码任务，任务在读取或执行时才解码<br/>
+ * 追加写入的日志不支持删除任务，同一个任务对象加入多次会记录多次
+ * <br/><br/>
+ * 写入的内容在映射的内存中，进程退出不会丢失，何时同步到磁盘由 {@link #setDurability(Durability)} 决定，每次加入任务和每次更新进度都算一条记录<br/>
+ * 该类所有操作均已上锁，并发安全
+ * <br/>
+ * <pre>示例：
+ * public static
+ * void main(String[] args) {
+ *     try {
+ *         // 检查是否有需要恢复的任务日志
+ *         TaskLog taskLog = TaskLog.readTaskLog("/tmp/", "a.log");
+ *         if (taskLog == null) {
+ *             taskLog = new TaskLog("/tmp/", "a.log");
+ *             taskLog.addTask(() -&gt; System.out.println("任务1"));
+ *             taskLog.addTask(() -&gt; System.out.println("任务2"));
+ *         }
+ *         // 从上次的位置继续执行
+ *         taskLog.run();
+ *         taskLog.delete();
+ *     } catch ( IOException e ) {
+ *         e.printStackTrace();
+ *     }
+ * }</pre>
+ *
+ * @author fybug
+ * @version 0.0.2
+ * @see TaskStorage
+ * @see TaskCodecs
+ * @since serializable 0.0.2
+ */
+public
+class TaskLog implements Closeable {
+    /** 分段文件头，"PDTL" */
+    private static final int LOG_MAGIC = 0x5044544C;
+    /** 分段格式的版本 */
+    private static final byte LOG_FORMAT = 2;
+    /** 执行进度在第一个分段中的位置 */
+    private static final int CURSOR = 8;
+    /** 分段大小在文件头中的位置 */
+    private static final int SIZE = 12;
+    /** 记录开始的位置 */
+    private static final int DATA = 16;
+    /** 记录头的长度，为长度和校验值 */
+    private static final int HEAD = 8;
+    /** 默认的分段大小，16 MB */
+    private static final int DEFAULT_SEGMENT = 16 << 20;
+
+    /** 分段文件保存的路径 */
+    @NotNull private final String path;
+    /** 分段文件的名称 */
+    @NotNull private final String filename;
+    /** 该对象的并发锁 */
+    @NotNull private final RWLock LOCK = SyLock.newRWLock();
+    /** 同步策略 */
+    @NotNull private Durability durability = Durability.none();
+
+    /** 每个分段的大小，超过该大小的记录单独使用一个更大的分段 */
+    private final int SEGMENT_SIZE;
+    /** 已映射的分段，为 null 时还未打开 */
+    @Nullable private ArrayList<MappedByteBuffer> SEGMENTS = null;
+    /** 当前分段中下一条记录写入的位置 */
+    private int WRITE_POS = DATA;
+    /** 每个任务记录的位置，高 32 位为分段序号，低 32 位为分段中的位置 */
+    @NotNull private long[] INDEX = new long[16];
+    /** 任务数 */
+    private int COUNT = 0;
+    /** 类型名称，下标为类型序号 */
+    @NotNull private final ArrayList<String> TYPES = new ArrayList<>();
+    /** 类型名称对应的类型序号 */
+    @NotNull private final HashMap<String, Integer> TYPE_IDS = new HashMap<>();
+    /** 执行计数 */
+    private int num = 0;
+    /** 是否关闭 */
+    private boolean CLOSE = false;
+
+    /** 未同步的记录数 */
+    private int PENDING = 0;
+    /** 上次同步的时间 */
+    private long SYNCED_AT = System.nanoTime();
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 构造新的任务日志，使用默认的分段大小
+     * <p>
+     * 第一次写入时创建文件，该位置已有任务日志时无法写入，需要通过 {@link #readTaskLog(String, String)} 恢复
+     *
+     * @param path     保存分段文件的路径
+     * @param filename 分段文件的名称
+     *
+     * @throws NullPointerException 当 path 和 filename 为 NULL 或 filename 为空字符串时
+     */
+    public
+    TaskLog(@NotNull String path, @NotNull String filename) { this(path, filename, DEFAULT_SEGMENT); }
+
+    /**
+     * 构造新的任务日志
+     * <p>
+     * 第一次写入时创建文件，该位置已有任务日志时无法写入，需要通过 {@link #readTaskLog(String, String)} 恢复
+     *
+     * @param path        保存分段文件的路径
+     * @param filename    分段文件的名称
+     * @param segmentSize 每个分段的大小
+     *
+     * @throws NullPointerException     当 path 和 filename 为 NULL 或 filename 为空字符串时
+     * @throws IllegalArgumentException 分段大小放不下文件头
+     */
+    public
+    TaskLog(@NotNull String path, @NotNull String filename, int segmentSize) {
+        if (path == null || filename == null || filename.equals(""))
+            throw new NullPointerException("'path' and 'filename' cannot be NULL,'filename' cannot be an empty string");
+        if (segmentSize <= DATA)
+            throw new IllegalArgumentException("'segmentSize' must be greater than " + DATA);
+        this.path = path;
+        this.filename = filename;
+        SEGMENT_SIZE = segmentSize;
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 设置同步策略
+     *
+     * @param durability 何时同步到磁盘，分组同步按照记录数和时间同步
+     *
+     * @return this
+     *
+     * @see Durability
+     */
+    @NotNull
+    public
+    TaskLog setDurability(@NotNull Durability durability) {
+        LOCK.write(() -> this.durability = durability);
+        return this;
+    }
+
+    /** @return 同步策略 */
+    @NotNull
+    public
+    Durability getDurability() { return LOCK.read(() -> durability); }
+
+    /** @return 每个分段的大小 */
+    public
+    int getSegmentSize() { return SEGMENT_SIZE; }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 追加一个任务对象
+     * <p>
+     * 编码后直接写入映射的分段
+     *
+     * @param task 要加入的任务对象
+     *
+     * @return this
+     *
+     * @throws FileAlreadyExistsException 该位置已有任务日志且没有通过 {@link #readTaskLog(String, String)} 打开
+     * @throws IOException                编码或创建分段失败时
+     */
+    @NotNull
+    public
+    TaskLog addTask(@NotNull TaskMedium task) throws IOException {
+        LOCK.trywrite(IOException.class, () -> {
+            open();
+            var codec = TaskCodecs.codecOf(task);
+            var type = TaskCodecs.typeOf(task, codec);
+            var id = TYPE_IDS.get(type);
+            if (id == null) {
+                // 新的类型，先写入类型记录
+                var name = type.getBytes(StandardCharsets.UTF_8);
+                append(-name.length - 1, name);
+                id = TYPES.size();
+                TYPES.add(type);
+                TYPE_IDS.put(type, id);
+            }
+
+            var bytes = new ByteArrayOutputStream();
+            var out = new DataOutputStream(bytes);
+            TaskCodecs.writeVarInt(out, id);
+            out.write(TaskCodecs.encode(task, codec));
+            out.flush();
+            var body = bytes.toByteArray();
+
+            var pos = append(body.length, body);
+            if (COUNT == INDEX.length)
+                INDEX = Arrays.copyOf(INDEX, COUNT << 1);
+            INDEX[COUNT++] = (long) (SEGMENTS.size() - 1) << 32 | pos;
+            written();
+        });
+        return this;
+    }
+
+    /**
+     * 读取指定位置的任务对象
+     * <p>
+     * 每次读取都会重新解码
+     *
+     * @param n 任务的位置
+     *
+     * @return 超出范围时返回 null
+     *
+     * @throws IOException            解码失败时
+     * @throws ClassNotFoundException java 序列化的任务类不存在
+     */
+    @Nullable
+    public
+    TaskMedium getTask(int n) throws IOException, ClassNotFoundException {
+        var bytes = LOCK.read(() -> n < 0 || n >= COUNT ? null : record(n));
+        return bytes == null ? null : decode(bytes);
+    }
+
+    /**
+     * @return 当前要执行的任务对象
+     *
+     * @throws IOException            解码失败时
+     * @throws ClassNotFoundException java 序列化的任务类不存在
+     * @see #getTask(int)
+     */
+    @Nullable
+    public
+    TaskMedium getNowTaskMedium() throws IOException, ClassNotFoundException
+    { return getTask(getNowNum()); }
+
+    /** @return 当前要执行的任务的位置 */
+    public
+    int getNowNum() { return LOCK.read(() -> num); }
+
+    /** @return 任务数 */
+    public
+    int size() { return LOCK.read(() -> COUNT); }
+
+    /** @return 是否执行完成了整个列表 */
+    public
+    boolean isEnd() { return LOCK.read(() -> num >= COUNT); }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 执行任务日志
+     * <p>
+     * 执行时会上写锁，从上次的位置开始依次解码并执行任务，每执行完一个任务就将进度写入映射的文件头
+     * <p>
+     * 如果其中一个任务出错则会中断执行，解码失败同样视为出错
+     *
+     * @return 是否执行完成整个列表
+     *
+     * @throws FileAlreadyExistsException 该位置已有任务日志且没有通过 {@link #readTaskLog(String, String)} 打开
+     * @throws IOException                系统IO出错时
+     */
+    public
+    boolean run() throws IOException {
+        return LOCK.trywrite(IOException.class, () -> {
+            open();
+            try {
+                while( num < COUNT ){
+                    try {
+                        // 执行
+                        decode(record(num)).run();
+                    } catch ( Exception e ) {
+                        // 出错跳出执行
+                        return false;
+                    }
+                    cursor(num + 1);
+                }
+            } finally {
+                // 同步剩余的记录
+                if (PENDING > 0 && durability.isSync())
+                    force();
+            }
+            return true;
+        });
+    }
+
+    /**
+     * 重置任务执行计数
+     *
+     * @return this
+     *
+     * @throws FileAlreadyExistsException 该位置已有任务日志且没有通过 {@link #readTaskLog(String, String)} 打开
+     * @throws IOException                系统IO出错时
+     */
+    @NotNull
+    public
+    TaskLog reset() throws IOException {
+        LOCK.trywrite(IOException.class, () -> {
+            open();
+            cursor(0);
+        });
+        return this;
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 同步到磁盘
+     * <p>
+     * 写入的内容已经在映射的文件中，同步策略不是 {@link Durability#none()} 时同步全部分段，否则不做处理
+     *
+     * @return this
+     */
+    @NotNull
+    public
+    TaskLog save() {
+        LOCK.write(this::forceAll);
+        return this;
+    }
+
+    /**
+     * 删除分段文件
+     * <p>
+     * 删除后日志为空，再次写入时重新创建
+     *
+     * @return 是否删除成功
+     *
+     * @throws IOException java 底层发生IO错误时
+     */
+    public
+    boolean delete() throws IOException { return LOCK.trywrite(IOException.class, this::deleteSegments); }
+
+    /**
+     * 关闭任务日志
+     * <p>
+     * 按照同步策略同步后释放映射，文件保留，可通过 {@link #readTaskLog(String, String)} 重新打开<br/>
+     * 关闭后无法再写入，映射的内存在回收后才会真正释放
+     */
+    @Override
+    public
+    void close() {
+        LOCK.write(() -> {
+            forceAll();
+            CLOSE = true;
+            SEGMENTS = null;
+            COUNT = 0;
+            num = 0;
+        });
+    }
+
+    /** 按照同步策略同步全部分段 */
+    private
+    void forceAll() {
+        if (SEGMENTS == null || !durability.isSync())
+            return;
+        for ( MappedByteBuffer segment : SEGMENTS )
+            segment.force();
+        PENDING = 0;
+        SYNCED_AT = System.nanoTime();
+    }
+
+    /**
+     * 释放映射并删除全部分段
+     * <p>
+     * 需要持有写锁
+     */
+    private
+    boolean deleteSegments() throws IOException {
+        SEGMENTS = null;
+        COUNT = 0;
+        num = 0;
+        TYPES.clear();
+        TYPE_IDS.clear();
+        return deleteFrom(0);
+    }
+
+    /**
+     * 删除指定序号及之后的分段文件
+     *
+     * @param start 开始删除的分段序号
+     *
+     * @return 是否删除了文件
+     */
+    private
+    boolean deleteFrom(int start) throws IOException {
+        var ok = false;
+        for ( int n = start; Files.exists(segmentPath(n)); n++ )
+            ok |= Files.deleteIfExists(segmentPath(n));
+        return ok;
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 打开分段
+     * <p>
+     * 需要持有写锁，没有打开时创建第一个分段，不会覆盖该位置已有的任务日志，没有第一个分段的残留分段会被清除
+     *
+     * @throws FileAlreadyExistsException 该位置已有任务日志
+     * @throws IOException                已经关闭
+     */
+    private
+    void open() throws IOException {
+        if (CLOSE)
+            throw new IOException("TaskLog is closed");
+        if (SEGMENTS != null)
+            return;
+        if (Files.exists(segmentPath(0)))
+            throw new FileAlreadyExistsException(segmentPath(0).toString(), null, "use TaskLog.readTaskLog to reopen it");
+        deleteSegments();
+        SEGMENTS = new ArrayList<>();
+        SEGMENTS.add(create(0, SEGMENT_SIZE));
+        WRITE_POS = DATA;
+    }
+
+    /**
+     * 创建分段
+     *
+     * @param n    分段的序号
+     * @param size 分段的大小
+     */
+    @NotNull
+    private
+    MappedByteBuffer create(int n, int size) throws IOException {
+        var files = segmentPath(n);
+        // 保证目录存在
+        if (files.getParent() != null)
+            Files.createDirectories(files.getParent());
+
+        MappedByteBuffer segment;
+        try ( var channel = FileChannel.open(files, CREATE, READ, WRITE, TRUNCATE_EXISTING) ) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        segment.putInt(0, LOG_MAGIC);
+        segment.put(4, LOG_FORMAT);
+        segment.putInt(SIZE, SEGMENT_SIZE);
+        if (durability.isSync()) {
+            // 文件头先写回磁盘再同步目录，目录中不会出现没有文件头的分段
+            segment.force();
+            if (files.getParent() != null)
+                CanSerializable.syncDirectory(files.getParent());
+        }
+        return segment;
+    }
+
+    /**
+     * 追加一条记录
+     * <p>
+     * 需要持有写锁，当前分段放不下时创建新的分段，先写入内容和校验值再写入长度
+     *
+     * @param length 记录头中的长度
+     * @param body   记录内容
+     *
+     * @return 记录在分段中的位置
+     */
+    private
+    int append(int length, @NotNull byte[] body) throws IOException {
+        var size = HEAD + body.length;
+        var segment = SEGMENTS.get(SEGMENTS.size() - 1);
+        if (WRITE_POS + size > segment.capacity()) {
+            // 当前分段写满，之前的内容不会再修改
+            if (durability.isSync())
+                segment.force();
+            segment = create(SEGMENTS.size(), Math.max(SEGMENT_SIZE, DATA + size));
+            SEGMENTS.add(segment);
+            WRITE_POS = DATA;
+        }
+
+        var pos = WRITE_POS;
+        segment.duplicate().position(pos + HEAD).put(body);
+        segment.putInt(pos + Integer.BYTES, checksum(length, ByteBuffer.wrap(body)));
+        segment.putInt(pos, length);
+        WRITE_POS += size;
+        return pos;
+    }
+
+    /**
+     * 读取任务记录的内容
+     *
+     * @param n 任务的位置
+     */
+    @NotNull
+    private
+    byte[] record(int n) {
+        var segment = SEGMENTS.get((int) (INDEX[n] >>> 32));
+        var pos = (int) INDEX[n];
+        var bytes = new byte[segment.getInt(pos)];
+        segment.duplicate().position(pos + HEAD).get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 解码任务记录
+     *
+     * @param bytes 任务记录的内容
+     *
+     * @throws StreamCorruptedException 类型序号不存在
+     */
+    @NotNull
+    private
+    TaskMedium decode(@NotNull byte[] bytes) throws IOException, ClassNotFoundException {
+        var in = new DataInputStream(new ByteArrayInputStream(bytes));
+        var id = TaskCodecs.readVarInt(in);
+        var type = LOCK.read(() -> id < TYPES.size() ? TYPES.get(id) : null);
+        if (type == null)
+            throw new StreamCorruptedException("Unknown type " + id);
+        return TaskCodecs.decode(type, in.readAllBytes());
+    }
+
+    /**
+     * 更新执行计数
+     * <p>
+     * 需要持有写锁，直接写入第一个分段的文件头
+     *
+     * @param n 新的执行计数
+     */
+    private
+    void cursor(int n) throws IOException {
+        num = n;
+        SEGMENTS.get(0).putInt(CURSOR, n);
+        written();
+    }
+
+    /** 记录一次写入，按照同步策略同步 */
+    private
+    void written() throws IOException {
+        if (durability.due(++PENDING, SYNCED_AT))
+            force();
+    }
+
+    /**
+     * 同步写入过的分段
+     * <p>
+     * 只有记录进度的第一个分段和正在写入的分段会被修改，写满的分段在切换时已经同步
+     */
+    private
+    void force() {
+        SEGMENTS.get(0).force();
+        if (SEGMENTS.size() > 1)
+            SEGMENTS.get(SEGMENTS.size() - 1).force();
+        PENDING = 0;
+        SYNCED_AT = System.nanoTime();
+    }
+
+    /**
+     * @param n 分段的序号
+     *
+     * @return 分段文件的路径
+     */
+    @NotNull
+    private
+    Path segmentPath(int n) { return Path.of(path, filename + '.' + n); }
+
+    /**
+     * 计算记录的校验值
+     *
+     * @param length 记录头中的长度
+     * @param body   记录内容
+     *
+     * @return 长度和内容的 CRC32
+     */
+    private static
+    int checksum(int length, @NotNull ByteBuffer body) {
+        var crc = new CRC32();
+        crc.update(length >>> 24);
+        crc.update(length >>> 16);
+        crc.update(length >>> 8);
+        crc.update(length);
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 恢复任务日志
+     * <p>
+     * 使用第一个分段中记录的分段大小，只映射分段并记录每个任务的位置，不会解码任务<br/>
+     * 末尾写入一半、长度丢失或校验值不匹配的记录会被忽略，最后一个分段中该位置之后的内容会被清除，之后写入的任务会覆盖这些记录<br/>
+     * 第一个分段之后文件头不完整的分段同样视为日志的末尾，该分段和之后的分段会被删除
+     *
+     * @param path     保存分段文件的路径
+     * @param filename 分段文件的名称
+     *
+     * @return 没有分段文件时返回 null
+     *
+     * @throws StreamCorruptedException 第一个分段的格式不正确
+     * @throws IOException              发生底层错误时
+     */
+    @Nullable
+    public static
+    TaskLog readTaskLog(@NotNull String path, @NotNull String filename) throws IOException {
+        var files = Path.of(path, filename + ".0");
+        if (!Files.isRegularFile(files))
+            return null;
+
+        // 读取文件头中的分段大小
+        var head = ByteBuffer.allocate(DATA);
+        try ( var channel = FileChannel.open(files, READ) ) {
+            while( head.hasRemaining() )
+                if (channel.read(head) < 0)
+                    break;
+        }
+        var segmentSize = head.getInt(SIZE);
+        if (head.hasRemaining() || head.getInt(0) != LOG_MAGIC || segmentSize <= DATA)
+            throw new StreamCorruptedException("Invalid segment " + files);
+        if (head.get(4) != LOG_FORMAT)
+            throw new StreamCorruptedException("Unsupported format version");
+
+        var log = new TaskLog(path, filename, segmentSize);
+        log.recover();
+        return log;
+    }
+
+    /**
+     * 清除分段中指定位置之后的内容
+     * <p>
+     * 只在有残留的内容时写入，正常关闭的日志恢复时不会修改文件
+     *
+     * @param segment 分段
+     * @param pos     开始清除的位置
+     */
+    private static
+    void clear(@NotNull MappedByteBuffer segment, int pos) {
+        for ( int i = pos; i < segment.capacity(); i++ ){
+            if (segment.get(i) != 0) {
+                segment.duplicate().position(i).put(ByteBuffer.allocate(segment.capacity() - i));
+                return;
+            }
+        }
+    }
+
+    /** 映射已有的分段并重建位置索引 */
+    private
+    void recover() throws IOException {
+        SEGMENTS = new ArrayList<>();
+        var torn = false;
+        for ( int n = 0; !torn && Files.isRegularFile(segmentPath(n)); n++ ){
+            MappedByteBuffer segment;
+            try ( var channel = FileChannel.open(segmentPath(n), READ, WRITE) ) {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            }
+            if (segment.capacity() < DATA || segment.getInt(0) != LOG_MAGIC || segment.get(4) != LOG_FORMAT) {
+                // 新的分段在文件头写回磁盘前崩溃，视为日志的末尾
+                if (n > 0) {
+                    torn = true;
+                    break;
+                }
+                throw new StreamCorruptedException("Invalid segment " + segmentPath(n));
+            }
+            SEGMENTS.add(segment);
+
+            // 只读取长度并检查校验值，记录任务的位置
+            var pos = DATA;
+            while( pos + HEAD <= segment.capacity() ){
+                var length = segment.getInt(pos);
+                var size = length < 0 ? -(long) length - 1 : length;
+                if (length == 0 || pos + HEAD + size > segment.capacity())
+                    break;
+                var body = segment.duplicate().limit(pos + HEAD + (int) size).position(pos + HEAD);
+                if (checksum(length, body.duplicate()) != segment.getInt(pos + Integer.BYTES)) {
+                    // 内容没有完整写入，视为日志的末尾
+                    torn = true;
+                    break;
+                }
+
+                if (length < 0) {
+                    var name = new byte[(int) size];
+                    body.get(name);
+                    var type = new String(name, StandardCharsets.UTF_8);
+                    TYPE_IDS.put(type, TYPES.size());
+                    TYPES.add(type);
+                } else {
+                    if (COUNT == INDEX.length)
+                        INDEX = Arrays.copyOf(INDEX, COUNT << 1);
+                    INDEX[COUNT++] = (long) n << 32 | pos;
+                }
+                pos += HEAD + size;
+            }
+            WRITE_POS = pos;
+        }
+
+        // 损坏位置之后的分段不再有效
+        if (torn)
+            deleteFrom(SEGMENTS.size());
+        // 长度可能在崩溃时丢失而之后的记录保留了下来，清除末尾之后的内容防止新的记录接上旧的记录
+        clear(SEGMENTS.get(SEGMENTS.size() - 1), WRITE_POS);
+        num = Math.min(Math.max(SEGMENTS.get(0).getInt(CURSOR), 0), COUNT);
+    }
+}
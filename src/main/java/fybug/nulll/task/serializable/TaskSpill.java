@@ -0,0 +1,302 @@
+package fybug.nulll.task.serializable;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import fybug.nulll.pdconcurrent.RWLock;
+import fybug.nulll.pdconcurrent.SyLock;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * <h2>任务溢出文件.</h2>
+ * <p>
+ * 用于在队列过长时将 {@link TaskMedium} 暂存到磁盘，队列中只保留记录的位置，执行时再从文件中读回<br/>
+ * 文件保存在 {@link #path} 目录下，分为多个分段 {@code filename.0}、{@code filename.1} ...，在第一次写入时创建
+ * <br/><br/>
+ * 每条记录为 4 字节的长度、类型名称和任务内容，只追加写入，可以按照位置随机读取<br/>
+ * 注册了 {@link TaskCodec} 的任务使用编码器写入，其他任务单独进行 java 序列化<br/>
+ * 当前分段超过分段大小后写入新的分段，旧分段的记录全部释放后删除，持续过载时文件大小也不会无限增长，关闭时删除所有分段
+ * <br/><br/>
+ * 写入和释放上写锁，读取只在读取文件内容时上读锁，编码和解码都在锁外进行
+ *
+ * @author fybug
+ * @version 0.0.3
+ * @see fybug.nulll.task.TaskQueue.Build#spill(String, String, int)
+ * @see TaskCodecs
+ * @since serializable 0.0.2
+ */
+public final
+class TaskSpill implements Closeable {
+    /** 默认的分段大小 */
+    public static final long DEFAULT_SEGMENT = 4 << 20;
+
+    /** 溢出文件保存的路径 */
+    @NotNull private final String path;
+    /** 溢出文件的保存名称 */
+    @NotNull private final String filename;
+    /** 分段大小，当前分段超过该大小后写入新的分段 */
+    private final long segment;
+    /** 该对象的并发锁 */
+    @NotNull private final RWLock LOCK = SyLock.newRWLock();
+
+    /** 未删除的分段，键为分段序号 */
+    @NotNull private final HashMap<Integer, Segment> SEGMENTS = new HashMap<>();
+    /** 正在写入的分段序号 */
+    private int CURRENT = 0;
+    /** 还未释放的记录数 */
+    private int COUNT = 0;
+    /** 是否关闭 */
+    private boolean CLOSE = false;
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * @param path     溢出文件保存的路径
+     * @param filename 溢出文件的保存名称
+     *
+     * @throws NullPointerException 当 path 和 filename 为 NULL 或 filename 为空字符串时
+     */
+    public
+    TaskSpill(@NotNull String path, @NotNull String filename) { this(path, filename, DEFAULT_SEGMENT); }
+
+    /**
+     * @param path     溢出文件保存的路径
+     * @param filename 溢出文件的保存名称
+     * @param segment  分段大小
+     *
+     * @throws NullPointerException     当 path 和 filename 为 NULL 或 filename 为空字符串时
+     * @throws IllegalArgumentException 分段大小不为正数或超过 {@link Integer#MAX_VALUE}
+     * @since TaskSpill 0.0.3
+     */
+    public
+    TaskSpill(@NotNull String path, @NotNull String filename, long segment) {
+        if (path == null || filename == null || filename.equals(""))
+            throw new NullPointerException("'path' and 'filename' cannot be NULL,'filename' cannot be an empty string");
+        if (segment <= 0 || segment > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("'segment' must be positive and not exceed Integer.MAX_VALUE");
+        this.path = path;
+        this.filename = filename;
+        this.segment = segment;
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 写入任务
+     * <p>
+     * 编码在锁外进行，写入的记录需要在不再使用时调用 {@link #release(long)} 释放
+     *
+     * @param task 要写入的任务
+     *
+     * @return 记录的位置，高 32 位为分段序号，低 32 位为分段中的位置，用于 {@link #read(long)}
+     *
+     * @throws IOException 编码失败或文件已关闭
+     */
+    public
+    long write(@NotNull TaskMedium task) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        var codec = TaskCodecs.codecOf(task);
+        out.writeUTF(TaskCodecs.typeOf(task, codec));
+        out.write(TaskCodecs.encode(task, codec));
+        out.flush();
+        var buffer = ByteBuffer.allocate(Integer.BYTES + bytes.size());
+        buffer.putInt(bytes.size()).put(bytes.toByteArray()).flip();
+
+        return LOCK.trywrite(IOException.class, () -> {
+            if (CLOSE)
+                throw new IOException("TaskSpill is closed");
+            var seg = current(buffer.remaining());
+            var offset = (long) CURRENT << 32 | seg.end;
+            while( buffer.hasRemaining() )
+                seg.end += seg.channel.write(buffer, seg.end);
+            seg.count++;
+            COUNT++;
+            return offset;
+        });
+    }
+
+    /**
+     * 读取任务
+     * <p>
+     * 读取不会释放记录，可以重复读取
+     *
+     * @param offset 记录的位置
+     *
+     * @return 解码后的任务
+     *
+     * @throws IOException            记录不存在或文件已关闭
+     * @throws ClassNotFoundException 任务的类不存在
+     */
+    @NotNull
+    public
+    TaskMedium read(long offset) throws IOException, ClassNotFoundException {
+        byte[] bytes = LOCK.tryread(IOException.class, () -> {
+            var seg = SEGMENTS.get((int) (offset >>> 32));
+            var position = offset & 0xFFFFFFFFL;
+            if (seg == null || offset < 0 || position >= seg.end)
+                throw new IOException("No record at " + offset);
+            var head = ByteBuffer.allocate(Integer.BYTES);
+            seg.readFully(head, position);
+            var body = ByteBuffer.allocate(head.flip().getInt());
+            seg.readFully(body, position + Integer.BYTES);
+            return body.array();
+        });
+
+        var in = new DataInputStream(new ByteArrayInputStream(bytes));
+        var type = in.readUTF();
+        return TaskCodecs.decode(type, in.readAllBytes());
+    }
+
+    /**
+     * 释放一条记录
+     * <p>
+     * 分段中的记录全部释放后，正在写入的分段清空并从头写入，其他分段直接删除
+     *
+     * @param offset 记录的位置
+     *
+     * @throws IOException 清空或删除分段失败
+     * @since TaskSpill 0.0.3
+     */
+    public
+    void release(long offset) throws IOException {
+        LOCK.trywrite(IOException.class, () -> {
+            var n = (int) (offset >>> 32);
+            var seg = SEGMENTS.get(n);
+            if (seg == null || seg.count <= 0)
+                return;
+            COUNT--;
+            if (--seg.count > 0)
+                return;
+            if (n == CURRENT) {
+                seg.channel.truncate(0);
+                seg.end = 0;
+            } else {
+                SEGMENTS.remove(n);
+                seg.channel.close();
+                Files.deleteIfExists(segmentPath(n));
+            }
+        });
+    }
+
+    /** @return 还未释放的记录数 */
+    public
+    int size() { return LOCK.read(() -> COUNT); }
+
+    /** @return 未删除的分段数 */
+    public
+    int segments() { return LOCK.read(SEGMENTS::size); }
+
+    /**
+     * 关闭并删除溢出文件
+     * <p>
+     * 关闭后无法再写入和读取
+     */
+    @Override
+    public
+    void close() throws IOException {
+        LOCK.trywrite(IOException.class, () -> {
+            CLOSE = true;
+            COUNT = 0;
+            for ( var e : SEGMENTS.entrySet() ){
+                e.getValue().channel.close();
+                Files.deleteIfExists(segmentPath(e.getKey()));
+            }
+            SEGMENTS.clear();
+        });
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 获取写入的分段
+     * <p>
+     * 需要持有写锁，当前分段放不下该记录时切换到新的分段，分段不存在时创建文件，已有的内容会被清除<br/>
+     * 空的分段总是可以写入，即使记录本身超过了分段大小
+     *
+     * @param length 记录的长度
+     */
+    @NotNull
+    private
+    Segment current(int length) throws IOException {
+        var seg = SEGMENTS.get(CURRENT);
+        if (seg != null && seg.end > 0 && seg.end + length > segment) {
+            // 旧分段已经全部释放时直接删除
+            if (seg.count == 0) {
+                SEGMENTS.remove(CURRENT);
+                seg.channel.close();
+                Files.deleteIfExists(segmentPath(CURRENT));
+            }
+            CURRENT++;
+            seg = null;
+        }
+        if (seg == null) {
+            var file = segmentPath(CURRENT);
+            // 保证目录存在
+            if (file.getParent() != null)
+                Files.createDirectories(file.getParent());
+            seg = new Segment(FileChannel.open(file, CREATE, READ, WRITE, TRUNCATE_EXISTING));
+            SEGMENTS.put(CURRENT, seg);
+        }
+        return seg;
+    }
+
+    /** 分段文件的路径 */
+    @NotNull
+    private
+    Path segmentPath(int n) { return Path.of(path, filename + '.' + n); }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    /**
+     * <h2>溢出文件分段.</h2>
+     *
+     * @author fybug
+     * @version 0.0.1
+     * @since TaskSpill 0.0.3
+     */
+    private static final
+    class Segment {
+        /** 文件通道 */
+        @NotNull final FileChannel channel;
+        /** 下一条记录写入的位置 */
+        long end = 0;
+        /** 该分段中还未释放的记录数 */
+        int count = 0;
+
+        /** @param channel 文件通道 */
+        Segment(@NotNull FileChannel channel) { this.channel = channel; }
+
+        /**
+         * 从指定位置读满缓冲区
+         *
+         * @param buffer   缓冲区
+         * @param position 开始读取的位置
+         *
+         * @throws EOFException 文件内容不足
+         */
+        void readFully(@NotNull ByteBuffer buffer, long position) throws IOException {
+            while( buffer.hasRemaining() ){
+                var n = channel.read(buffer, position);
+                if (n < 0)
+                    throw new EOFException();
+                position += n;
+            }
+        }
+    }
+}
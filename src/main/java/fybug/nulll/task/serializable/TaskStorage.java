@@ -2,17 +2,26 @@ package fybug.nulll.task.serializable;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.LinkedHashSet;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Optional;
 
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
  * <h2>可序列化的任务列表执行工具.</h2>
@@ -20,7 +29,8 @@ import static java.nio.file.StandardOpenOption.READ;
  * 该类所有操作均已上锁，并发安全<br/>
  * 如果需要反序列化该对象，可以调用 {@link TaskStorage#readTaskStorage(String, String)} 方法快速反序列化
  * <br/><br/>
- * 该类内部用一个 {@link LinkedHashSet} 来保存任务对象，因此需要将一个任务对象从队列中删除时，可以使用该任务对象本身 {@link #removeTask(TaskMedium)} 也可以使用任务对象在队列中的位置 {@link #removeTask(int)}<br/>
+ * 该类内部用一个 {@link ArrayList} 按照插入顺序保存任务对象，并用一个 {@link HashSet} 保证同一个任务对象只会加入一次，按照位置读取和恢复执行位置都不需要遍历列表<br/>
+ * 需要将一个任务对象从队列中删除时，可以使用该任务对象本身 {@link #removeTask(TaskMedium)} 也可以使用任务对象在队列中的位置 {@link #removeTask(int)}<br/>
  * 任务对象的执行是按照插入顺序进行的，插入任务对象通过 {@link #addTask(TaskMedium)} 方法进行<br/>
  * 需要注意的时，队列内的任务对象 {@link TaskMedium} 必须是可序列化的，其中的参数也必须可序列化
  * <br/><br/>
@@ -28,6 +38,14 @@ import static java.nio.file.StandardOpenOption.READ;
  * 如果需要从头运行请调用 {@link #reset()} 这将会重置 {@link #num} 为0，这可以让任务列表从头开始运行<br/>
  * {@link #run()} 方法开始运行后会先调用一次 {@link #save()} 对任务列表进行一次序列化保存，随后每次运行完一个任务都会调用一次进行序列化保存
  * <br/><br/>
+ * 任务很多时可通过 {@link #setJournal(boolean)} 启用日志模式，{@link #run()} 开始时只保存一次任务列表，随后每完成一个任务只向日志文件追加 8 字节的执行计数<br/>
+ * 日志文件为任务文件名称加上 ".journal" 后缀，{@link #readTaskStorage(String, String)} 恢复时会读取日志中最后一条完整的记录作为执行计数<br/>
+ * 保存和日志记录何时同步到磁盘由 {@link #setDurability(Durability)} 决定，日志模式下每条执行计数为一条记录
+ * <br/><br/>
+ * 所有任务都注册了 {@link TaskCodec} 时任务文件使用二进制格式保存，每个任务为一条带有长度的记录，使用编码器写入<br/>
+ * 有任务没有注册编码器时依旧整体进行 java 序列化，同一个流中共享类的描述，比每个任务单独序列化更小<br/>
+ * 之前使用 java 序列化保存的任务文件依旧可以读取
+ * <br/><br/>
  * 如果任务对象运行途中发生异常将不会抛出该异常，只会进行打印，并中断任务列表的执行，这会导致返回一个 false<br/>
  * {@link #run()} 运行途中发生异常通常是序列化失败导致，请检查是否能够对指定的路径和文件写入数据
  * <br/>
@@ -64,20 +82,36 @@ import static java.nio.file.StandardOpenOption.READ;
  * }</pre>
  *
  * @author fybug
- * @version 0.0.1
+ * @version 0.0.5
  * @see TaskMedium
+ * @see TaskCodecs
  * @see CanSerializable
  * @since serializable 0.0.1
  */
 public
 class TaskStorage extends CanSerializable {
     /** 任务列表 */
-    @NotNull protected transient LinkedHashSet<TaskMedium> TASK_LIST = new LinkedHashSet<>();
+    @NotNull protected final transient ArrayList<TaskMedium> TASK_LIST = new ArrayList<>();
+    /**
+     * 任务列表中的任务对象，用于去重
+     *
+     * @since TaskStorage 0.0.5
+     */
+    @NotNull protected final transient HashSet<TaskMedium> TASK_SET = new HashSet<>();
     /**
      * 任务执行计数
      * 用来记录执行到任务列表中的第几个任务
      */
     protected int num = 0;
+    /**
+     * 是否使用日志模式
+     *
+     * @since TaskStorage 0.0.2
+     */
+    protected boolean journal = false;
+
+    /** 日志记录的长度，执行计数和校验值各 4 字节 */
+    private static final int JOURNAL_RECORD = 8;
 
     //----------------------------------------------------------------------------------------------
 
@@ -88,6 +122,44 @@ class TaskStorage extends CanSerializable {
     public
     TaskStorage(@NotNull String path, @NotNull String filenamne) { super(path, filenamne); }
 
+    /**
+     * 用于反序列化
+     *
+     * @see #readTaskStorage(String, String)
+     * @since TaskStorage 0.0.2
+     */
+    public
+    TaskStorage() {}
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * 设置是否使用日志模式
+     * <p>
+     * 日志模式下 {@link #run()} 只在开始时保存一次任务列表，每完成一个任务向日志文件追加一条固定长度的记录，保存进度的开销不再随任务列表的长度增长<br/>
+     * 该设置会随任务文件一起保存
+     *
+     * @param journal 是否使用日志模式
+     *
+     * @return this
+     *
+     * @since TaskStorage 0.0.2
+     */
+    @NotNull
+    public
+    TaskStorage setJournal(boolean journal) {
+        LOCK.write(() -> this.journal = journal);
+        return this;
+    }
+
+    /**
+     * @return 是否使用日志模式
+     *
+     * @since TaskStorage 0.0.2
+     */
+    public
+    boolean isJournal() { return LOCK.read(() -> journal); }
+
     //----------------------------------------------------------------------------------------------
 
     /**
@@ -98,15 +170,28 @@ class TaskStorage extends CanSerializable {
      * @return this
      *
      * @see #TASK_LIST
-     * @see LinkedHashSet
+     * @see #TASK_SET
      */
     @NotNull
     public
     TaskStorage addTask(@NotNull TaskMedium ta) {
-        Optional.of(ta).ifPresent(t -> LOCK.write(() -> TASK_LIST.add(t)));
+        Optional.of(ta).ifPresent(t -> LOCK.write(() -> add(t)));
         return this;
     }
 
+    /**
+     * 追加任务对象，已经在列表中的任务对象不会重复加入
+     * <p>
+     * 该方法没有加锁
+     *
+     * @param t 要加入列表的任务对象
+     */
+    private
+    void add(@NotNull TaskMedium t) {
+        if (TASK_SET.add(t))
+            TASK_LIST.add(t);
+    }
+
     /**
      * 删除掉指定的任务对象
      *
@@ -115,7 +200,7 @@ class TaskStorage extends CanSerializable {
      * @return 是否删除成功
      *
      * @see #TASK_LIST
-     * @see LinkedHashSet
+     * @see #TASK_SET
      */
     public
     boolean removeTask(@NotNull TaskMedium t) {
@@ -123,7 +208,8 @@ class TaskStorage extends CanSerializable {
             return false;
         return LOCK.write(() -> {
             // 删除
-            if (TASK_LIST.remove(t)) {
+            if (TASK_SET.remove(t)) {
+                TASK_LIST.remove(t);
                 // 检查游标的位置，防止参数偏移
                 if (num == TASK_LIST.size())
                     num = TASK_LIST.size() - 1;
@@ -143,26 +229,16 @@ class TaskStorage extends CanSerializable {
      * @return 是否删除成功
      *
      * @see #TASK_LIST
-     * @see LinkedHashSet
+     * @see #TASK_SET
      * @see #num
      */
     public
     boolean removeTask(int s) {
-        if (s < -1 || s >= TASK_LIST.size())
-            return false;
         return LOCK.write(() -> {
-            TaskMedium t = null;
-            int i = 0;
-            // 检查任务列表
-            for ( TaskMedium taskMedium : TASK_LIST ){
-                // 如果是这个位置
-                if (i++ == s) {
-                    t = taskMedium;
-                    break;
-                }
-            }
+            if (s < 0 || s >= TASK_LIST.size())
+                return false;
             // 删除
-            if (t != null && TASK_LIST.remove(t)) {
+            if (TASK_SET.remove(TASK_LIST.remove(s))) {
                 // 检查游标的位置，防止参数偏移
                 if (num == TASK_LIST.size())
                     num = TASK_LIST.size() - 1;
@@ -183,17 +259,7 @@ class TaskStorage extends CanSerializable {
     @Nullable
     public
     TaskMedium getNowTaskMedium() {
-        return LOCK.read(() -> {
-            int i = 0;
-            // 检查任务列表
-            for ( TaskMedium taskMedium : TASK_LIST ){
-                // 如果是这个位置
-                if (i++ == num) {
-                    return taskMedium;
-                }
-            }
-            return null;
-        });
+        return LOCK.read(() -> num >= 0 && num < TASK_LIST.size() ? TASK_LIST.get(num) : null);
     }
 
     /**
@@ -217,7 +283,6 @@ class TaskStorage extends CanSerializable {
      * @return 当前任务列表的长度
      *
      * @see #TASK_LIST
-     * @see LinkedHashSet
      */
     public
     int size() { return LOCK.read(() -> TASK_LIST.size()); }
@@ -236,7 +301,8 @@ class TaskStorage extends CanSerializable {
     /**
      * 执行任务列表
      * <p>
-     * 执行时会上读锁，每执行完一个任务就会覆盖保存一次任务文件
+     * 执行时会上读锁，每执行完一个任务就会覆盖保存一次任务文件<br/>
+     * 日志模式下只在开始时保存一次任务文件，每执行完一个任务向日志文件追加一条记录
      * <p>
      * 如果其中一个任务出错则会中断整个任务列表的执行
      *
@@ -251,30 +317,122 @@ class TaskStorage extends CanSerializable {
         final boolean[] ok = {true};
 
         LOCK.trywrite(IOException.class, () -> {
-            // 当前计数，用于跳过之前已经执行过的任务
-            var i = 0;
-            // 执行任务列表
-            for ( TaskMedium taskMedium : TASK_LIST ){
-                // 当前为需要执行的任务
-                if (i++ == num) {
-                    // 保存一次
-                    save1();
+            if (journal) {
+                ok[0] = runJournal();
+                return;
+            }
+            // 从上次的位置开始执行任务列表
+            while( num >= 0 && num < TASK_LIST.size() ){
+                // 保存一次
+                save1();
+                try {
+                    // 执行
+                    TASK_LIST.get(num).run();
+                } catch ( Exception e ) {
+                    // 出错跳出执行
+                    ok[0] = false;
+                    break;
+                }
+                num++;
+            }
+        });
+
+        return ok[0];
+    }
+
+    /**
+     * 使用日志模式执行任务列表
+     * <p>
+     * 需要持有写锁，先保存一次任务文件，随后每执行完一个任务追加一条执行计数的记录<br/>
+     * 任务文件按照同步策略总是同步，日志记录按照同步策略同步，结束时同步剩余的记录
+     *
+     * @return 是否执行完成整个列表
+     *
+     * @throws IOException 系统IO出错时
+     * @see #save1()
+     */
+    private
+    boolean runJournal() throws IOException {
+        // 保存当前的任务列表和进度，同时清除旧的日志
+        save1();
+
+        try ( var channel = FileChannel.open(journalPath(), CREATE, WRITE, APPEND) ) {
+            if (durability.isSync())
+                syncDirectory(journalPath().getParent());
+
+            var record = ByteBuffer.allocate(JOURNAL_RECORD);
+            // 未同步的记录数
+            var pending = 0;
+            var syncedAt = System.nanoTime();
+            try {
+                // 从上次的位置开始执行任务列表
+                while( num >= 0 && num < TASK_LIST.size() ){
                     try {
                         // 执行
-                        taskMedium.run();
+                        TASK_LIST.get(num).run();
                     } catch ( Exception e ) {
                         // 出错跳出执行
-                        ok[0] = false;
-                        break;
+                        return false;
                     }
                     num++;
+                    // 追加执行计数，校验值用于识别写入一半的记录
+                    record.clear();
+                    record.putInt(num).putInt(~num).flip();
+                    while( record.hasRemaining() )
+                        channel.write(record);
+
+                    if (durability.due(++pending, syncedAt)) {
+                        channel.force(false);
+                        pending = 0;
+                        syncedAt = System.nanoTime();
+                    }
                 }
+            } finally {
+                // 同步剩余的记录
+                if (pending > 0 && durability.isSync())
+                    channel.force(false);
             }
-        });
+        }
+        return true;
+    }
 
-        return ok[0];
+    /**
+     * 读取日志中的执行计数
+     * <p>
+     * 从后往前找到最后一条完整且在任务列表范围内的记录，没有日志时不做修改
+     *
+     * @throws IOException 系统IO出错时
+     */
+    private
+    void replay() throws IOException {
+        var files = journalPath();
+        if (!Files.isRegularFile(files))
+            return;
+
+        try ( var channel = FileChannel.open(files, READ) ) {
+            var record = ByteBuffer.allocate(JOURNAL_RECORD);
+            // 忽略末尾不完整的记录
+            for ( long pos = channel.size() / JOURNAL_RECORD * JOURNAL_RECORD - JOURNAL_RECORD; pos >= 0;
+                  pos -= JOURNAL_RECORD ){
+                record.clear();
+                if (channel.read(record, pos) < JOURNAL_RECORD)
+                    continue;
+
+                record.flip();
+                var n = record.getInt();
+                if (record.getInt() == ~n && n >= 0 && n <= TASK_LIST.size()) {
+                    num = n;
+                    return;
+                }
+            }
+        }
     }
 
+    /** @return 日志文件的路径 */
+    @NotNull
+    private
+    Path journalPath() { return Path.of(path, filename + ".journal"); }
+
     //----------------------------------------------------------------------------------------------
 
     /**
@@ -309,6 +467,7 @@ class TaskStorage extends CanSerializable {
         LOCK.write(() -> {
             num = 0;
             TASK_LIST.clear();
+            TASK_SET.clear();
         });
         return this;
     }
@@ -360,6 +519,28 @@ class TaskStorage extends CanSerializable {
     boolean deletetmp() throws IOException
     { return LOCK.tryread(IOException.class, this::deltetmp1); }
 
+    /**
+     * 保存任务文件
+     * <p>
+     * 日志模式下先删除旧的日志，保存的任务文件中已经包含当前的进度<br/>
+     * 在保存完成前中断时恢复的进度只会落后，不会跳过未执行的任务
+     */
+    @Override
+    protected
+    void save1() throws IOException {
+        if (journal)
+            Files.deleteIfExists(journalPath());
+        super.save1();
+    }
+
+    /** 同时删除日志文件 */
+    @Override
+    protected
+    boolean delte1() throws IOException {
+        var ok = super.delte1();
+        return Files.deleteIfExists(journalPath()) || ok;
+    }
+
     //----------------------------------------------------------------------------------------------
 
     @Override
@@ -367,13 +548,14 @@ class TaskStorage extends CanSerializable {
     void writeExternal(ObjectOutput out) throws IOException {
         super.writeExternal(out);
         // 记录任务列表的长度
-        out.write(TASK_LIST.size());
+        out.writeInt(TASK_LIST.size());
         // 单独序列化其中的任务列表
         for ( TaskMedium i : TASK_LIST ){
             out.writeObject(i);
         }
         // 保存其他参数
         out.writeInt(num);
+        out.writeBoolean(journal);
     }
 
     @Override
@@ -381,21 +563,110 @@ class TaskStorage extends CanSerializable {
     void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
         super.readExternal(in);
         // 重建任务列表
-        this.TASK_LIST = new LinkedHashSet<>();
+        TASK_LIST.clear();
+        TASK_SET.clear();
         // 获取任务列表的长度
         int i = in.readInt();
+        TASK_LIST.ensureCapacity(i);
         // 重新填充任务列表
         for ( ; i > 0; i-- ){
-            TASK_LIST.add((TaskMedium) in.readObject());
+            add((TaskMedium) in.readObject());
         }
         // 重新获取其他参数
         this.num = in.readInt();
+        this.journal = in.readBoolean();
+    }
+
+    /**
+     * 是否使用二进制格式保存
+     * <p>
+     * 所有任务都注册了 {@link TaskCodec} 时使用二进制格式，否则依旧使用 java 序列化<br/>
+     * 二进制格式中没有编码器的任务只能单独进行 java 序列化，每条记录都会重复写入类的描述，混合的任务列表整体进行 java 序列化更小
+     */
+    @Override
+    protected
+    boolean binary() {
+        if (TASK_LIST.isEmpty())
+            return false;
+        for ( TaskMedium taskMedium : TASK_LIST ){
+            if (TaskCodecs.codecOf(taskMedium) == null)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * 以二进制格式写入参数
+     * <p>
+     * 先写入任务用到的类型表，随后每个任务写入类型在表中的位置、内容长度和内容，位置和长度为变长整数
+     */
+    @Override
+    protected
+    void writeBinary(@NotNull DataOutput out) throws IOException {
+        super.writeBinary(out);
+        out.writeInt(num);
+        out.writeBoolean(journal);
+
+        // 整理类型表，每个任务只取一次编码器
+        var types = new LinkedHashMap<String, Integer>();
+        var kinds = new String[TASK_LIST.size()];
+        var codecs = new ArrayList<TaskCodec<TaskMedium>>(kinds.length);
+        var i = 0;
+        for ( TaskMedium taskMedium : TASK_LIST ){
+            var codec = TaskCodecs.codecOf(taskMedium);
+            var type = TaskCodecs.typeOf(taskMedium, codec);
+            codecs.add(codec);
+            kinds[i++] = type;
+            types.putIfAbsent(type, types.size());
+        }
+        out.writeInt(types.size());
+        for ( String type : types.keySet() )
+            out.writeUTF(type);
+
+        // 写入任务记录
+        out.writeInt(kinds.length);
+        i = 0;
+        for ( TaskMedium taskMedium : TASK_LIST ){
+            var type = kinds[i];
+            var bytes = TaskCodecs.encode(taskMedium, codecs.get(i++));
+            TaskCodecs.writeVarInt(out, types.get(type));
+            TaskCodecs.writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    protected
+    void readBinary(@NotNull DataInput in) throws IOException, ClassNotFoundException {
+        super.readBinary(in);
+        this.num = in.readInt();
+        this.journal = in.readBoolean();
+
+        // 读取类型表
+        var types = new String[in.readInt()];
+        for ( int i = 0; i < types.length; i++ )
+            types[i] = in.readUTF();
+
+        // 重建任务列表
+        TASK_LIST.clear();
+        TASK_SET.clear();
+        for ( int i = in.readInt(); i > 0; i-- ){
+            var type = TaskCodecs.readVarInt(in);
+            var length = TaskCodecs.readVarInt(in);
+            if (type < 0 || type >= types.length || length < 0)
+                throw new StreamCorruptedException("Invalid task record");
+            var bytes = new byte[length];
+            in.readFully(bytes);
+            add(TaskCodecs.decode(types[type], bytes));
+        }
     }
 
     //----------------------------------------------------------------------------------------------
 
     /**
      * 反序列化
+     * <p>
+     * 可以读取二进制格式和 java 序列化格式的任务文件，日志模式下会读取日志中的执行计数
      *
      * @param path      保存任务文件的路径
      * @param filenamne 保存的任务文件名称
@@ -412,11 +683,11 @@ class TaskStorage extends CanSerializable {
         TaskStorage a = null;
 
         var files = Path.of(path, filenamne);
-        if (Files.isExecutable(files)) {
-            // 打开读取流
-            var in = new ObjectInputStream(Files.newInputStream(files, READ));
-            a = (TaskStorage) in.readObject();
-            in.close();
+        if (Files.isRegularFile(files)) {
+            a = read1(files, TaskStorage.class);
+            // 恢复日志中的进度
+            if (a.journal)
+                a.replay();
         }
         return a;
     }
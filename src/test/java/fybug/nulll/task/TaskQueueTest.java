@@ -6,6 +6,17 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fybug.nulll.task.serializable.TaskMedium;
 
 public
 class TaskQueueTest {
@@ -44,4 +55,575 @@ class TaskQueueTest {
 
         Assert.assertEquals(writer.toString(), RunTest.testdata + RunTest.testdata + "pring");
     }
-}
\ No newline at end of file
+
+    @Test
+    public
+    void lockFree() throws InterruptedException {
+        var queue = TaskQueue.build().lockFree().pool(RunTest.pool).build();
+        var count = new AtomicInteger();
+        var threads = new ArrayList<Thread>();
+        var backs = new ArrayList<Back<?>>();
+
+        for ( int i = 0; i < 4; i++ ){
+            var thread = new Thread(() -> {
+                for ( int j = 0; j < 1000; j++ ){
+                    try {
+                        var back = queue.addtask(count::incrementAndGet);
+                        synchronized ( backs ){
+                            backs.add(back);
+                        }
+                    } catch ( InterruptedException ignored ) {
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for ( Thread thread : threads )
+            thread.join();
+        backs.forEach(Back::sync);
+
+        Assert.assertEquals(4000, count.get());
+        queue.close(null).sync();
+        Assert.assertTrue(queue.isClose());
+    }
+
+    @Test
+    public
+    void batch() throws InterruptedException {
+        var queue = TaskQueue.build().batch(16).pool(RunTest.pool).build();
+        var list = new ArrayList<Integer>();
+
+        Back<?> back = null;
+        for ( int i = 0; i < 100; i++ ){
+            int n = i;
+            back = queue.addtask(() -> list.add(n));
+        }
+        back.sync();
+
+        Assert.assertEquals(100, list.size());
+        for ( int i = 0; i < 100; i++ )
+            Assert.assertEquals(i, (int) list.get(i));
+        queue.close();
+    }
+
+    @Test
+    public
+    void addtasks() throws InterruptedException {
+        var list = new ArrayList<Integer>();
+        var runs = new ArrayList<Runnable>();
+        for ( int i = 0; i < 1000; i++ ){
+            int n = i;
+            runs.add(() -> list.add(n));
+        }
+
+        var backs = tasks.addtasks(runs);
+        Assert.assertEquals(1000, backs.size());
+        backs.get(backs.size() - 1).sync();
+
+        Assert.assertEquals(1000, list.size());
+        for ( int i = 0; i < 1000; i++ )
+            Assert.assertEquals(i, (int) list.get(i));
+    }
+
+    @Test
+    public
+    void workers() throws InterruptedException {
+        var closed = new CountDownLatch(1);
+        var queue = TaskQueue.build().workers(4).closeCall(closed::countDown).pool(RunTest.pool).build();
+        // 只有四个任务同时执行才能全部通过
+        var latch = new CountDownLatch(4);
+        var count = new AtomicInteger();
+
+        var runs = new ArrayList<Runnable>();
+        for ( int i = 0; i < 4; i++ ){
+            runs.add(() -> {
+                latch.countDown();
+                try {
+                    if (latch.await(5, TimeUnit.SECONDS))
+                        count.incrementAndGet();
+                } catch ( InterruptedException ignored ) {
+                }
+            });
+        }
+        for ( Back<?> back : queue.addtasks(runs) )
+            back.sync();
+
+        Assert.assertEquals(4, count.get());
+        queue.close(null).sync();
+        Assert.assertTrue(closed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public
+    void virtual() throws InterruptedException {
+        if (!TaskQueue.supportVirtual()) {
+            try {
+                TaskQueue.build().virtual().build();
+                Assert.fail();
+            } catch ( UnsupportedOperationException ignored ) {
+            }
+            return;
+        }
+
+        var queue = TaskQueue.build().virtual().build();
+        var thread = new Thread[1];
+        queue.addtask(() -> thread[0] = Thread.currentThread()).sync();
+
+        Assert.assertNotNull(thread[0]);
+        // 虚拟线程总是守护线程
+        Assert.assertTrue(thread[0].isDaemon());
+        queue.close();
+    }
+
+    @Test
+    public
+    void thread() throws InterruptedException {
+        var queue = TaskQueue.build().threadName("dedicated").daemon(true).priority(Thread.MAX_PRIORITY).build();
+        var thread = new Thread[1];
+        queue.addtask(() -> thread[0] = Thread.currentThread()).sync();
+
+        Assert.assertEquals("dedicated", thread[0].getName());
+        Assert.assertTrue(thread[0].isDaemon());
+        Assert.assertEquals(Thread.MAX_PRIORITY, thread[0].getPriority());
+        queue.close();
+    }
+
+    @Test
+    public
+    void onEnd() throws Exception {
+        var block = new CountDownLatch(1);
+        var back = tasks.addtask(() -> {
+            try {
+                block.await();
+            } catch ( InterruptedException ignored ) {
+            }
+        });
+        var call = new CountDownLatch(1);
+        back.onEnd(call::countDown);
+        var future = back.future();
+
+        Assert.assertFalse(future.isDone());
+        block.countDown();
+        future.get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(call.await(5, TimeUnit.SECONDS));
+
+        // 已经结束时直接运行
+        var after = new AtomicInteger();
+        back.onEnd(after::incrementAndGet);
+        Assert.assertEquals(1, after.get());
+    }
+
+    @Test
+    public
+    void result() throws Exception {
+        Assert.assertEquals(Integer.valueOf(42), tasks.addtask(() -> 42).get());
+
+        var fail = tasks.addtask(() -> {
+            throw new IllegalStateException("fail");
+        });
+        try {
+            fail.get();
+            Assert.fail();
+        } catch ( ExecutionException e ) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertTrue(fail.future().isCompletedExceptionally());
+
+        // 异常不会中断处理线程
+        Assert.assertEquals("next", tasks.addtask(() -> "next").get());
+    }
+
+    @Test
+    public
+    void syncTimeout() throws Exception {
+        var block = new CountDownLatch(1);
+        var slow = tasks.addtask(() -> {
+            block.await();
+            return "slow";
+        });
+        var fast = tasks.addtask(() -> "fast");
+
+        Assert.assertFalse(slow.sync(10, TimeUnit.MILLISECONDS));
+        Assert.assertFalse(Back.allOf(slow, fast).sync(10, TimeUnit.MILLISECONDS));
+        try {
+            slow.get(10, TimeUnit.MILLISECONDS);
+            Assert.fail();
+        } catch ( TimeoutException ignored ) {
+        }
+
+        block.countDown();
+        Assert.assertTrue(Back.allOf(slow, fast).sync(5, TimeUnit.SECONDS));
+        Assert.assertEquals("slow", Back.anyOf(slow, fast).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public
+    void cancel() throws Exception {
+        var block = new CountDownLatch(1);
+        var running = tasks.addtask(() -> {
+            block.await();
+            return null;
+        });
+        var ran = new AtomicInteger();
+        var queued = tasks.addtask(ran::incrementAndGet);
+
+        Assert.assertTrue(queued.cancel());
+        Assert.assertTrue(queued.isEnd());
+        Assert.assertTrue(queued.isCancelled());
+        try {
+            queued.get();
+            Assert.fail();
+        } catch ( CancellationException ignored ) {
+        }
+
+        block.countDown();
+        running.get();
+        // 已经执行完毕的任务不能取消
+        Assert.assertFalse(running.cancel());
+        tasks.addtask(() -> null).get();
+        Assert.assertEquals(0, ran.get());
+    }
+
+    @Test
+    public
+    void tryStop() throws Exception {
+        var running = new CountDownLatch(1);
+        // 任务收到通知后直接返回，不清除中断标记
+        var back = tasks.addtask(() -> {
+            running.countDown();
+            while( !Thread.currentThread().isInterrupted() )
+                Thread.onSpinWait();
+        });
+        running.await();
+        back.tryStop();
+        back.sync();
+
+        // 处理线程不受残留的中断影响
+        Thread.sleep(50);
+        Assert.assertFalse(tasks.isClose());
+        Assert.assertEquals(1, (int) tasks.addtask(() -> 1).get());
+    }
+
+    @Test
+    public
+    void tryStopPeriodic() throws Exception {
+        // 执行中的周期任务可以停止，且不再执行
+        var running = new CountDownLatch(1);
+        var runs = new AtomicInteger();
+        var fixed = tasks.addtaskWithFixedDelay(() -> {
+            runs.incrementAndGet();
+            running.countDown();
+            try {
+                Thread.sleep(5000);
+            } catch ( InterruptedException ignored ) {
+            }
+        }, 0, 1, TimeUnit.MILLISECONDS);
+        running.await();
+        fixed.tryStop();
+        Assert.assertTrue(fixed.sync(5, TimeUnit.SECONDS));
+        Thread.sleep(20);
+        Assert.assertEquals(1, runs.get());
+
+        // 两次执行之间可以取消
+        var ran = new CountDownLatch(1);
+        var rate = tasks.addtaskAtFixedRate(ran::countDown, 0, 1, TimeUnit.HOURS);
+        ran.await();
+        for ( int i = 0; i < 100 && !rate.cancel(); i++ )
+            Thread.sleep(10);
+        Assert.assertTrue(rate.isCancelled());
+    }
+
+    @Test
+    public
+    void delay() throws Exception {
+        for ( TaskQueue queue : new TaskQueue[]{tasks, TaskQueue.build().lockFree().build()} ){
+            var order = new StringBuffer();
+            var start = System.nanoTime();
+            var late = queue.addtask(() -> order.append('b'), 60, TimeUnit.MILLISECONDS);
+            var early = queue.addtask(() -> order.append('a'), 20, TimeUnit.MILLISECONDS);
+            queue.addtask(() -> order.append('0'));
+
+            late.get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(early.isEnd());
+            Assert.assertEquals("0ab", order.toString());
+            Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(60));
+
+            // 周期任务在取消前持续执行
+            var count = new CountDownLatch(3);
+            var rate = queue.addtaskAtFixedRate(count::countDown, 0, 5, TimeUnit.MILLISECONDS);
+            Assert.assertTrue(count.await(5, TimeUnit.SECONDS));
+            Assert.assertFalse(rate.isEnd());
+            var fixed = queue.addtaskWithFixedDelay(() -> {
+                throw new IllegalStateException();
+            }, 0, 5, TimeUnit.MILLISECONDS);
+            Assert.assertTrue(fixed.sync(5, TimeUnit.SECONDS));
+            Assert.assertTrue(fixed.getError() instanceof IllegalStateException);
+
+            queue.close();
+            Assert.assertTrue(rate.sync(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public
+    void priority() throws Exception {
+        var queue = TaskQueue.build().prioritized(1, TimeUnit.HOURS).build();
+        var block = new CountDownLatch(1);
+        queue.addtask(() -> {
+            block.await();
+            return null;
+        });
+
+        var order = new StringBuffer();
+        queue.addtask(() -> order.append('a'));
+        queue.addtask(() -> order.append('b'));
+        queue.addtask(() -> order.append('c'), 2);
+        queue.addtask(() -> order.append('d'), 1);
+        block.countDown();
+        queue.addtask(() -> order.append('e'), -1).sync();
+
+        Assert.assertEquals("cdabe", order.toString());
+        queue.close();
+    }
+
+    @Test
+    public
+    void capacity() throws Exception {
+        for ( TaskQueue.Overflow overflow : TaskQueue.Overflow.values() ){
+            var queue = TaskQueue.build().capacity(2).overflow(overflow).build();
+            var block = new CountDownLatch(1);
+            var running = new CountDownLatch(1);
+            queue.addtask(() -> {
+                running.countDown();
+                block.await();
+                return null;
+            });
+            running.await();
+            var first = queue.addtask(() -> {});
+            queue.addtask(() -> {});
+            Assert.assertEquals(2, queue.size());
+
+            var caller = new Thread[1];
+            switch ( overflow ) {
+                case BLOCK:
+                    var added = new CountDownLatch(1);
+                    new Thread(() -> {
+                        try {
+                            queue.addtask(() -> {});
+                            added.countDown();
+                        } catch ( InterruptedException ignored ) {
+                        }
+                    }).start();
+                    Assert.assertFalse(added.await(50, TimeUnit.MILLISECONDS));
+                    block.countDown();
+                    Assert.assertTrue(added.await(5, TimeUnit.SECONDS));
+                    break;
+                case FAIL:
+                    try {
+                        queue.addtask(() -> {});
+                        Assert.fail();
+                    } catch ( RejectedExecutionException ignored ) {
+                    }
+                    break;
+                case DROP_OLDEST:
+                    queue.addtask(() -> {});
+                    Assert.assertTrue(first.isCancelled());
+                    break;
+                case CALLER_RUNS:
+                    Assert.assertTrue(queue.addtask(() -> caller[0] = Thread.currentThread()).isEnd());
+                    Assert.assertSame(Thread.currentThread(), caller[0]);
+                    break;
+            }
+            Assert.assertTrue(queue.size() <= 2);
+            block.countDown();
+            queue.close();
+        }
+    }
+
+    @Test
+    public
+    void capacityAddtasks() throws Exception {
+        // 批量加入超过容量时不会卡住，已放入的任务可以被处理
+        var queue = TaskQueue.build().capacity(2).overflow(TaskQueue.Overflow.BLOCK).build();
+        var ran = new AtomicInteger();
+        var list = new ArrayList<Runnable>();
+        for ( int i = 0; i < 5; i++ )
+            list.add(ran::incrementAndGet);
+        for ( Back<Void> back : queue.addtasks(list) )
+            back.sync();
+        Assert.assertEquals(5, ran.get());
+        queue.close();
+
+        // 中途拒绝时整批取消
+        queue = TaskQueue.build().capacity(2).overflow(TaskQueue.Overflow.FAIL).build();
+        var block = new CountDownLatch(1);
+        var running = new CountDownLatch(1);
+        queue.addtask(() -> {
+            running.countDown();
+            block.await();
+            return null;
+        });
+        running.await();
+        ran.set(0);
+        try {
+            queue.addtasks(list);
+            Assert.fail();
+        } catch ( RejectedExecutionException ignored ) {
+        }
+        block.countDown();
+        // 已取消的任务由处理线程取出后跳过，稍等即可
+        for ( int i = 0; i < 100 && queue.size() > 0; i++ )
+            Thread.sleep(10);
+        Assert.assertEquals(0, queue.size());
+        Assert.assertEquals(0, ran.get());
+        queue.close();
+    }
+
+    @Test
+    public
+    void dropOldest() throws Exception {
+        // 启用优先级时丢弃最早加入的任务，而不是最先执行的任务
+        var queue = TaskQueue.build()
+                             .capacity(2)
+                             .overflow(TaskQueue.Overflow.DROP_OLDEST)
+                             .prioritized(1, TimeUnit.SECONDS)
+                             .build();
+        var block = new CountDownLatch(1);
+        var running = new CountDownLatch(1);
+        queue.addtask(() -> {
+            running.countDown();
+            block.await();
+            return null;
+        });
+        running.await();
+        var low = queue.addtask(() -> {});
+        var high = queue.addtask(() -> {}, 5);
+        queue.addtask(() -> {});
+        Assert.assertTrue(low.isCancelled());
+        Assert.assertFalse(high.isCancelled());
+        block.countDown();
+        high.sync();
+        queue.close();
+
+        // 等待关闭时关闭任务不会被丢弃
+        queue = TaskQueue.build().capacity(2).overflow(TaskQueue.Overflow.DROP_OLDEST).build();
+        var block2 = new CountDownLatch(1);
+        var running2 = new CountDownLatch(1);
+        queue.addtask(() -> {
+            running2.countDown();
+            block2.await();
+            return null;
+        });
+        running2.await();
+        queue.addtask(() -> {});
+        var close = queue.close(null);
+        queue.addtask(() -> {});
+        queue.addtask(() -> {});
+        queue.addtask(() -> {});
+        Assert.assertFalse(close.isCancelled());
+        block2.countDown();
+        close.sync();
+        Assert.assertFalse(close.isCancelled());
+        Assert.assertTrue(queue.isClose());
+    }
+
+    @Test
+    public
+    void maxWeight() throws Exception {
+        var queue = TaskQueue.build().maxWeight(100).overflow(TaskQueue.Overflow.FAIL).build();
+        var block = new CountDownLatch(1);
+        var running = new CountDownLatch(1);
+        queue.addtask(() -> {
+            running.countDown();
+            block.await();
+            return null;
+        });
+        running.await();
+
+        class Payload implements Runnable, Weigher.Weighted {
+            final int size;
+
+            Payload(int size) { this.size = size; }
+
+            @Override
+            public
+            long weight() { return size; }
+
+            @Override
+            public
+            void run() {}
+        }
+        queue.addtask(new Payload(60));
+        queue.addtask(new Payload(40));
+        // 没有实现 Weighted 的任务不计重量
+        queue.addtask(() -> {});
+        try {
+            queue.addtask(new Payload(1));
+            Assert.fail();
+        } catch ( RejectedExecutionException ignored ) {
+        }
+
+        block.countDown();
+        queue.addtask(() -> {}).sync();
+        // 队列清空后可以放入超重的任务
+        queue.addtask(new Payload(1000)).sync();
+        queue.close();
+    }
+
+    /** 溢出测试中读回执行的任务 */
+    static final AtomicInteger SPILLED = new AtomicInteger();
+
+    static
+    class SpillTask implements TaskMedium {
+        private static final long serialVersionUID = 1L;
+
+        final int value;
+
+        SpillTask(int value) { this.value = value; }
+
+        @Override
+        public
+        void run() { SPILLED.addAndGet(value); }
+    }
+
+    @Test
+    public
+    void spill() throws Exception {
+        var dir = Files.createTempDirectory("spill");
+        var queue = TaskQueue.build().spill(dir.toString(), "queue.spill", 2).build();
+        var block = new CountDownLatch(1);
+        var running = new CountDownLatch(1);
+        queue.addtask(() -> {
+            running.countDown();
+            block.await();
+            return null;
+        });
+        running.await();
+        SPILLED.set(0);
+
+        var backs = new ArrayList<Back<Void>>();
+        for ( int i = 1; i <= 10; i++ )
+            backs.add(queue.addtask(new SpillTask(i)));
+        // 前两个留在内存中，其余写入文件
+        Assert.assertTrue(Files.size(dir.resolve("queue.spill.0")) > 0);
+        Assert.assertEquals(10, queue.size());
+        // 取消的任务同样释放记录
+        backs.get(9).cancel();
+
+        block.countDown();
+        Back.allOf(backs.toArray(new Back<?>[0])).sync();
+        Assert.assertEquals(45, SPILLED.get());
+        // 全部执行后清空文件，释放在结束回调中进行，稍等即可
+        for ( int i = 0; i < 100 && Files.size(dir.resolve("queue.spill.0")) > 0; i++ )
+            Thread.sleep(10);
+        Assert.assertEquals(0, Files.size(dir.resolve("queue.spill.0")));
+
+        // 关闭队列后删除文件
+        queue.close();
+        for ( int i = 0; i < 100 && Files.exists(dir.resolve("queue.spill.0")); i++ )
+            Thread.sleep(10);
+        Assert.assertFalse(Files.exists(dir.resolve("queue.spill.0")));
+        Files.delete(dir);
+    }
+}
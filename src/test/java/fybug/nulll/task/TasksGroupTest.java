@@ -5,6 +5,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static fybug.nulll.task.RunTest.pool;
 import static fybug.nulll.task.RunTest.testdata;
@@ -44,4 +49,124 @@ class TasksGroupTest {
 
         Assert.assertEquals(writer.toString(), RunTest.testdata + RunTest.testdata + "pring");
     }
-}
\ No newline at end of file
+
+    @Test
+    public
+    void workSteal() throws Exception {
+        var steal = TasksGroup.build().workSteal().build();
+        var busy = steal.addQueue(pool);
+        steal.addQueue(pool);
+
+        // 阻塞其中一个队列
+        var block = new CountDownLatch(1);
+        steal.addtask(() -> {
+            try {
+                block.await();
+            } catch ( InterruptedException ignored ) {
+            }
+        }, busy);
+
+        var done = new CountDownLatch(10);
+        var backs = new ArrayList<Back<?>>();
+        for ( int i = 0; i < 10; i++ )
+            backs.add(steal.addtask(done::countDown));
+
+        // 被阻塞队列中的任务由另一个队列完成
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        block.countDown();
+        backs.forEach(Back::sync);
+        steal.close();
+    }
+
+    @Test
+    public
+    void route() throws Exception {
+        var robin = TasksGroup.build().route(TaskRoute.roundRobin()).build();
+        for ( int i = 0; i < 3; i++ )
+            robin.addQueue(pool);
+
+        // 每个队列占用一个线程
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        var backs = new ArrayList<Back<?>>();
+        for ( int i = 0; i < 6; i++ )
+            backs.add(robin.addtask(() -> threads.add(Thread.currentThread())));
+        backs.forEach(Back::sync);
+
+        Assert.assertEquals(3, threads.size());
+        robin.close();
+    }
+
+    @Test
+    public
+    void addtaskKey() throws Exception {
+        var keys = TasksGroup.build().build();
+        for ( int i = 0; i < 4; i++ )
+            keys.addQueue(pool);
+
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        var list = new ArrayList<Integer>();
+        Back<?> back = null;
+        for ( int i = 0; i < 100; i++ ){
+            int n = i;
+            back = keys.addtask("account", () -> {
+                threads.add(Thread.currentThread());
+                list.add(n);
+            });
+        }
+        back.sync();
+
+        // 相同路由键在同一个队列中按顺序执行
+        Assert.assertEquals(1, threads.size());
+        for ( int i = 0; i < 100; i++ )
+            Assert.assertEquals(i, (int) list.get(i));
+        keys.close();
+    }
+
+    @Test
+    public
+    void keyHash() throws Exception {
+        var keys = TasksGroup.build().route(TaskRoute.keyHash()).build();
+        for ( int i = 0; i < 4; i++ )
+            keys.addQueue(pool);
+
+        // 没有路由键的任务不会全部分配到同一个队列
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        var backs = new ArrayList<Back<?>>();
+        for ( int i = 0; i < 40; i++ )
+            backs.add(keys.addtask(() -> threads.add(Thread.currentThread())));
+        backs.forEach(Back::sync);
+        Assert.assertTrue(threads.size() > 1);
+
+        // 相同路由键总是加入同一个队列
+        threads.clear();
+        backs.clear();
+        for ( int i = 0; i < 40; i++ )
+            backs.add(keys.addtask("account", () -> threads.add(Thread.currentThread())));
+        backs.forEach(Back::sync);
+        Assert.assertEquals(1, threads.size());
+        keys.close();
+    }
+
+    @Test
+    public
+    void timer() throws Exception {
+        var timed = TasksGroup.build().timer().build();
+        timed.addQueue(pool);
+        timed.addQueue(pool);
+
+        var start = System.nanoTime();
+        var late = timed.addtask(() -> {}, 50, TimeUnit.MILLISECONDS);
+        var cancelled = timed.addtask(() -> Assert.fail(), 20, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(cancelled.cancel());
+
+        Assert.assertTrue(late.sync(5, TimeUnit.SECONDS));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertTrue(cancelled.isCancelled());
+
+        // 关闭时未到期的任务一同结束
+        var never = timed.addtask(() -> {}, 1, TimeUnit.HOURS);
+        timed.close();
+        Assert.assertTrue(never.sync(5, TimeUnit.SECONDS));
+        Assert.assertTrue(timed.timer().isClose());
+    }
+}
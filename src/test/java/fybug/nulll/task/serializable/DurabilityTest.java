@@ -0,0 +1,71 @@
+package fybug.nulll.task.serializable;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+public
+class DurabilityTest extends TaskFixture {
+    @Test
+    public
+    void none() {
+        var none = Durability.none();
+        Assert.assertFalse(none.isSync());
+        Assert.assertFalse(none.due(100, 0));
+    }
+
+    @Test
+    public
+    void sync() {
+        var sync = Durability.sync();
+        Assert.assertTrue(sync.isSync());
+        Assert.assertTrue(sync.due(1, System.nanoTime()));
+        // 没有未同步的记录时不需要同步
+        Assert.assertFalse(sync.due(0, 0));
+    }
+
+    @Test
+    public
+    void group() {
+        var records = Durability.group(3, 0, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(records.isSync());
+        Assert.assertFalse(records.due(2, 0));
+        Assert.assertTrue(records.due(3, System.nanoTime()));
+
+        var time = Durability.group(0, 1, TimeUnit.HOURS);
+        Assert.assertFalse(time.due(1000, System.nanoTime()));
+        Assert.assertTrue(time.due(1, System.nanoTime() - TimeUnit.HOURS.toNanos(2)));
+
+        for ( int[] args : new int[][]{{-1, 1}, {1, -1}, {0, 0}} ){
+            try {
+                Durability.group(args[0], args[1], TimeUnit.SECONDS);
+                Assert.fail();
+            } catch ( IllegalArgumentException ignored ) {
+            }
+        }
+    }
+
+    @Test
+    public
+    void save() throws Exception {
+        for ( Durability durability : new Durability[]{
+                Durability.none(), Durability.sync(), Durability.group(2, 0, TimeUnit.SECONDS)} ){
+            var storage = new TaskStorage(dir.toString(), "test.save");
+            storage.setDurability(durability);
+            storage.setJournal(true);
+            for ( int i = 0; i < 5; i++ )
+                storage.addTask(new Value(i));
+            Assert.assertTrue(storage.run());
+            // 临时文件已经重命名
+            Assert.assertFalse(Files.exists(dir.resolve("test.save.tmp")));
+
+            var read = TaskStorage.readTaskStorage(dir.toString(), "test.save");
+            Assert.assertNotNull(read);
+            Assert.assertEquals(5, read.size());
+            Assert.assertTrue(read.isEnd());
+            Assert.assertTrue(read.delete());
+        }
+        Assert.assertEquals(15, RAN.size());
+    }
+}
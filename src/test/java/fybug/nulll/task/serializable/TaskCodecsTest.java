@@ -0,0 +1,162 @@
+package fybug.nulll.task.serializable;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.file.Files;
+
+public
+class TaskCodecsTest extends TaskFixture {
+    static final TaskCodec<Coded> CODEC = new TaskCodec<>() {
+        @Override
+        public
+        void encode(@NotNull Coded task, @NotNull DataOutput out) throws IOException { out.writeInt(task.value); }
+
+        @NotNull
+        @Override
+        public
+        Coded decode(@NotNull DataInput in) throws IOException { return new Coded(in.readInt()); }
+    };
+
+    /** 使用编码器的任务 */
+    static
+    class Coded implements TaskMedium {
+        private static final long serialVersionUID = 1L;
+
+        final int value;
+
+        Coded(int value) { this.value = value; }
+
+        @Override
+        public
+        void run() {}
+    }
+
+    /** 使用 java 序列化的任务 */
+    static
+    class Plain implements TaskMedium {
+        private static final long serialVersionUID = 1L;
+
+        final String value;
+
+        Plain(String value) { this.value = value; }
+
+        @Override
+        public
+        void run() {}
+    }
+
+    @Before
+    public
+    void setUp() { TaskCodecs.register(Coded.class, CODEC); }
+
+    @After
+    public
+    void tearDown() { TaskCodecs.unregister(Coded.class); }
+
+    /** @return 文件是否为二进制格式 */
+    boolean binary() throws IOException {
+        try ( var in = new DataInputStream(Files.newInputStream(dir.resolve("test.save"))) ) {
+            return in.readInt() == CanSerializable.MAGIC;
+        }
+    }
+
+    @Test
+    public
+    void binaryRoundTrip() throws Exception {
+        var storage = new TaskStorage(dir.toString(), "test.save");
+        storage.addTask(new Coded(1)).addTask(new Coded(2)).addTask(new Coded(3));
+        storage.setJournal(true);
+        storage.removeTask(0);
+        storage.save();
+        Assert.assertTrue(binary());
+
+        var read = TaskStorage.readTaskStorage(dir.toString(), "test.save");
+        Assert.assertNotNull(read);
+        Assert.assertTrue(read.isJournal());
+        var list = read.getTaskList();
+        Assert.assertEquals(2, list.length);
+        Assert.assertEquals(2, ((Coded) list[0]).value);
+        Assert.assertEquals(3, ((Coded) list[1]).value);
+    }
+
+    @Test
+    public
+    void mixed() throws Exception {
+        // 有任务没有编码器时整体进行 java 序列化，共享类的描述
+        var storage = new TaskStorage(dir.toString(), "test.save");
+        storage.addTask(new Coded(1)).addTask(new Plain("a")).addTask(new Coded(2)).addTask(new Plain("b"));
+        storage.save();
+        Assert.assertFalse(binary());
+
+        var read = TaskStorage.readTaskStorage(dir.toString(), "test.save");
+        Assert.assertNotNull(read);
+        var list = read.getTaskList();
+        Assert.assertEquals(4, list.length);
+        Assert.assertEquals(1, ((Coded) list[0]).value);
+        Assert.assertEquals("a", ((Plain) list[1]).value);
+        Assert.assertEquals(2, ((Coded) list[2]).value);
+        Assert.assertEquals("b", ((Plain) list[3]).value);
+    }
+
+    @Test
+    public
+    void javaSerialization() throws Exception {
+        // 没有任务注册编码器时依旧使用 java 序列化
+        var storage = new TaskStorage(dir.toString(), "test.save");
+        storage.addTask(new Plain("a")).addTask(new Plain("b"));
+        storage.run();
+        Assert.assertFalse(binary());
+
+        var read = TaskStorage.readTaskStorage(dir.toString(), "test.save");
+        Assert.assertNotNull(read);
+        Assert.assertEquals(2, read.size());
+        Assert.assertEquals(1, read.getNowNum());
+        Assert.assertEquals("b", ((Plain) read.getNowTaskMedium()).value);
+
+        // 之前保存的文件在注册编码器后依旧可以读取
+        TaskCodecs.unregister(Coded.class);
+        storage = new TaskStorage(dir.toString(), "test.save");
+        storage.addTask(new Coded(3));
+        storage.save();
+        Assert.assertFalse(binary());
+        TaskCodecs.register(Coded.class, CODEC);
+        read = TaskStorage.readTaskStorage(dir.toString(), "test.save");
+        Assert.assertNotNull(read);
+        Assert.assertEquals(3, ((Coded) read.getTaskList()[0]).value);
+    }
+
+    @Test
+    public
+    void varInt() throws Exception {
+        var values = new int[]{0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE};
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        for ( int value : values )
+            TaskCodecs.writeVarInt(out, value);
+        out.flush();
+
+        var in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for ( int value : values )
+            Assert.assertEquals(value, TaskCodecs.readVarInt(in));
+        Assert.assertEquals(0, in.available());
+
+        // 超过 int 范围的内容
+        in = new DataInputStream(new ByteArrayInputStream(new byte[]{-1, -1, -1, -1, -1, 1}));
+        try {
+            TaskCodecs.readVarInt(in);
+            Assert.fail();
+        } catch ( StreamCorruptedException ignored ) {
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package fybug.nulll.task.serializable;
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 持久化测试共用的任务和临时目录
+ * <p>
+ * 每个测试使用单独的临时目录，结束后删除目录和其中的文件
+ */
+abstract
+class TaskFixture {
+    /** 执行过的任务，恢复后的任务是新的对象，只能通过静态变量记录 */
+    static final List<Integer> RAN = new ArrayList<>();
+    /** 执行到该值时抛出异常 */
+    static int FAIL = -1;
+
+    /** 测试使用的临时目录 */
+    Path dir;
+
+    /** 记录执行的任务 */
+    static
+    class Value implements TaskMedium {
+        private static final long serialVersionUID = 1L;
+
+        final int value;
+
+        Value(int value) { this.value = value; }
+
+        @Override
+        public
+        void run() {
+            if (value == FAIL)
+                throw new IllegalStateException();
+            RAN.add(value);
+        }
+    }
+
+    @Before
+    public
+    void setUpDir() throws IOException {
+        RAN.clear();
+        FAIL = -1;
+        dir = Files.createTempDirectory("task");
+    }
+
+    @After
+    public
+    void tearDownDir() throws IOException {
+        try ( var list = Files.list(dir) ) {
+            for ( Path p : list.toArray(Path[]::new) )
+                Files.delete(p);
+        }
+        Files.delete(dir);
+    }
+
+    /** @return 临时目录中的文件数 */
+    long files() throws IOException {
+        try ( var list = Files.list(dir) ) {
+            return list.count();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package fybug.nulll.task.serializable;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+public
+class TaskLogTest extends TaskFixture {
+    TaskLog log(int segmentSize, int size) throws IOException {
+        var log = new TaskLog(dir.toString(), "test.log", segmentSize);
+        for ( int i = 0; i < size; i++ )
+            log.addTask(new Value(i));
+        return log;
+    }
+
+    @Test
+    public
+    void runResume() throws Exception {
+        var log = log(4096, 10);
+        Assert.assertEquals(10, log.size());
+        FAIL = 6;
+        Assert.assertFalse(log.run());
+        Assert.assertEquals(List.of(0, 1, 2, 3, 4, 5), RAN);
+        Assert.assertEquals(6, log.getNowNum());
+        Assert.assertEquals(6, ((Value) log.getNowTaskMedium()).value);
+        log.close();
+
+        // 从记录的进度继续执行
+        var read = TaskLog.readTaskLog(dir.toString(), "test.log");
+        Assert.assertNotNull(read);
+        Assert.assertEquals(10, read.size());
+        Assert.assertEquals(6, read.getNowNum());
+        FAIL = -1;
+        RAN.clear();
+        Assert.assertTrue(read.run());
+        Assert.assertEquals(List.of(6, 7, 8, 9), RAN);
+        Assert.assertTrue(read.isEnd());
+        Assert.assertNull(read.getNowTaskMedium());
+
+        read.reset();
+        Assert.assertEquals(0, read.getNowNum());
+        read.close();
+        try {
+            read.addTask(new Value(10));
+            Assert.fail();
+        } catch ( IOException ignored ) {
+        }
+
+        read = TaskLog.readTaskLog(dir.toString(), "test.log");
+        Assert.assertNotNull(read);
+        Assert.assertEquals(0, read.getNowNum());
+        Assert.assertTrue(read.delete());
+        Assert.assertEquals(0, files());
+        Assert.assertNull(TaskLog.readTaskLog(dir.toString(), "test.log"));
+    }
+
+    @Test
+    public
+    void segmentRoll() throws Exception {
+        var log = log(256, 100).setDurability(Durability.sync());
+        Assert.assertEquals(256, log.getSegmentSize());
+        var segments = files();
+        Assert.assertTrue(segments > 1);
+        log.save().close();
+
+        // 恢复时使用保存的分段大小
+        var read = TaskLog.readTaskLog(dir.toString(), "test.log");
+        Assert.assertNotNull(read);
+        Assert.assertEquals(256, read.getSegmentSize());
+        Assert.assertEquals(100, read.size());
+        for ( int i = 0; i < 100; i++ )
+            Assert.assertEquals(i, ((Value) read.getTask(i)).value);
+        Assert.assertNull(read.getTask(100));
+
+        // 继续写入新的分段
+        for ( int i = 100; i < 200; i++ )
+            read.addTask(new Value(i));
+        Assert.assertTrue(files() > segments);
+        read.close();
+
+        read = TaskLog.readTaskLog(dir.toString(), "test.log");
+        Assert.assertNotNull(read);
+        Assert.assertEquals(200, read.size());
+        Assert.assertTrue(read.run());
+        Assert.assertEquals(200, RAN.size());
+        read.close();
+    }
+
+    @Test
+    public
+    void tornRecord() throws Exception {
+        log(256, 100).close();
+        var segments = files();
+        Assert.assertTrue(segments > 2);
+
+        // 第二个分段的第一条记录只写入了长度，内容还未写入
+        try ( var channel = FileChannel.open(dir.resolve("test.log.1"), READ, WRITE) ) {
+            var length = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(length, 16);
+            channel.write(ByteBuffer.allocate(length.flip().getInt()), 16 + 8);
+        }
+
+        var read = TaskLog.readTaskLog(dir.toString(), "test.log");
+        Assert.assertNotNull(read);
+        var size = read.size();
+        Assert.assertTrue(size > 0 && size < 100);
+        for ( int i = 0; i < size; i++ )
+            Assert.assertEquals(i, ((Value) read.getTask(i)).value);
+        // 损坏位置之后的分段被删除
+        Assert.assertEquals(2, files());
+
+        // 新的记录覆盖损坏的记录
+        read.addTask(new Value(size));
+        read.close();
+        read = TaskLog.readTaskLog(dir.toString(), "test.log");
+        Assert.assertNotNull(read);
+        Assert.assertEquals(size + 1, read.size());
+        Assert.assertEquals(size, ((Value) read.getTask(size)).value);
+        Assert.assertTrue(read.run());
+        Assert.assertEquals(size + 1, RAN.size());
+        read.close();
+    }
+
+    @Test
+    public
+    void lostHeader() throws Exception {
+        log(256, 100).close();
+        var segments = files();
+        Assert.assertTrue(segments > 3);
+
+        // 第三个分段已经创建，文件头还没有写回磁盘
+        try ( var channel = FileChannel.open(dir.resolve("test.log.2"), READ, WRITE) ) {
+            channel.write(ByteBuffer.allocate(16), 0);
+        }
+        var read = TaskLog.readTaskLog(dir.toString(), "test.log");
+        Assert.assertNotNull(read);
+        var size = read.size();
+        Assert.assertTrue(size > 0 && size < 100);
+        // 损坏的分段和之后的分段被删除
+        Assert.assertEquals(2, files());
+
+        // 继续写入时重新创建分段
+        for ( int i = size; i < 100; i++ )
+            read.addTask(new Value(i));
+        read.close();
+        read = TaskLog.readTaskLog(dir.toString(), "test.log");
+        Assert.assertNotNull(read);
+        Assert.assertEquals(100, read.size());
+        Assert.assertEquals(segments, files());
+        Assert.assertTrue(read.run());
+        Assert.assertEquals(100, RAN.size());
+        read.close();
+    }
+
+    @Test
+    public
+    void lostLength() throws Exception {
+        var log = new TaskLog(dir.toString(), "test.log", 4096);
+        for ( int i = 1; i <= 3; i++ )
+            log.addTask(new Value(i));
+        log.close();
+
+        // 第二个任务记录的长度没有写回磁盘，之后的记录保留了下来
+        try ( var channel = FileChannel.open(dir.resolve("test.log.0"), READ, WRITE) ) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES), record(channel, 1));
+        }
+        var read = TaskLog.readTaskLog(dir.toString(), "test.log");
+        Assert.assertNotNull(read);
+        Assert.assertEquals(1, read.size());
+
+        // 相同长度的新记录正好写在旧记录的边界上，旧的第三条记录不会恢复
+        read.addTask(new Value(4));
+        read.close();
+        read = TaskLog.readTaskLog(dir.toString(), "test.log");
+        Assert.assertNotNull(read);
+        Assert.assertTrue(read.run());
+        Assert.assertEquals(List.of(1, 4), RAN);
+        read.close();
+    }
+
+    /**
+     * @param channel 分段文件
+     * @param n       任务记录的序号，不计算类型记录
+     *
+     * @return 任务记录在分段中的位置
+     */
+    static
+    long record(FileChannel channel, int n) throws IOException {
+        var head = ByteBuffer.allocate(Integer.BYTES);
+        long pos = 16;
+        while( true ){
+            head.clear();
+            channel.read(head, pos);
+            var length = head.flip().getInt();
+            if (length > 0 && n-- == 0)
+                return pos;
+            pos += 8 + (length < 0 ? -(long) length - 1 : length);
+        }
+    }
+
+    @Test
+    public
+    void existing() throws Exception {
+        log(4096, 3).close();
+
+        // 新的对象不会覆盖已有的任务日志
+        var log = new TaskLog(dir.toString(), "test.log");
+        try {
+            log.addTask(new Value(3));
+            Assert.fail();
+        } catch ( FileAlreadyExistsException ignored ) {
+        }
+        try {
+            log.run();
+            Assert.fail();
+        } catch ( FileAlreadyExistsException ignored ) {
+        }
+        Assert.assertTrue(RAN.isEmpty());
+
+        var read = TaskLog.readTaskLog(dir.toString(), "test.log");
+        Assert.assertNotNull(read);
+        Assert.assertEquals(3, read.size());
+        Assert.assertTrue(read.delete());
+
+        // 删除后可以重新创建
+        log.addTask(new Value(3));
+        Assert.assertEquals(1, log.size());
+        log.close();
+    }
+
+    @Test
+    public
+    void invalid() throws Exception {
+        try {
+            new TaskLog(dir.toString(), "test.log", 16);
+            Assert.fail();
+        } catch ( IllegalArgumentException ignored ) {
+        }
+
+        Files.write(dir.resolve("test.log.0"), new byte[32]);
+        try {
+            TaskLog.readTaskLog(dir.toString(), "test.log");
+            Assert.fail();
+        } catch ( IOException ignored ) {
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package fybug.nulll.task.serializable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+public
+class TaskSpillTest extends TaskFixture {
+    TaskSpill spill;
+
+    @Before
+    public
+    void setUp() { spill = new TaskSpill(dir.toString(), "test.spill", 256); }
+
+    @After
+    public
+    void tearDown() throws IOException { spill.close(); }
+
+    @Test
+    public
+    void readWrite() throws Exception {
+        var a = spill.write(new Value(1));
+        var b = spill.write(new Value(2));
+        Assert.assertEquals(2, ((Value) spill.read(b)).value);
+        Assert.assertEquals(1, ((Value) spill.read(a)).value);
+        // 读取不释放
+        Assert.assertEquals(1, ((Value) spill.read(a)).value);
+        Assert.assertEquals(2, spill.size());
+
+        spill.release(a);
+        spill.release(b);
+        Assert.assertEquals(0, spill.size());
+        Assert.assertEquals(0, Files.size(dir.resolve("test.spill.0")));
+    }
+
+    @Test
+    public
+    void segment() throws Exception {
+        var offsets = new long[100];
+        for ( int i = 0; i < offsets.length; i++ )
+            offsets[i] = spill.write(new Value(i));
+        Assert.assertTrue(spill.segments() > 1);
+        for ( int i = 0; i < offsets.length; i++ )
+            Assert.assertEquals(i, ((Value) spill.read(offsets[i])).value);
+
+        // 持续写入的同时释放旧记录，已经消费完的分段被删除
+        for ( int round = 0; round < 10; round++ ){
+            for ( int i = 0; i < offsets.length; i++ ){
+                spill.release(offsets[i]);
+                offsets[i] = spill.write(new Value(i));
+            }
+        }
+        Assert.assertEquals(offsets.length, spill.size());
+        Assert.assertEquals(spill.segments(), files());
+        // 写入了 1100 条记录，只保留还有未释放记录的分段
+        Assert.assertTrue(files() <= offsets.length + 1);
+
+        for ( long offset : offsets )
+            spill.release(offset);
+        Assert.assertEquals(1, spill.segments());
+
+        spill.close();
+        Assert.assertEquals(0, files());
+    }
+}
@@ -0,0 +1,149 @@
+package fybug.nulll.task.serializable;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+public
+class TaskStorageTest extends TaskFixture {
+    TaskStorage storage(int size) {
+        var storage = new TaskStorage(dir.toString(), "test.save");
+        for ( int i = 0; i < size; i++ )
+            storage.addTask(new Value(i));
+        return storage;
+    }
+
+    @Test
+    public
+    void journal() throws Exception {
+        var storage = storage(5).setJournal(true);
+        Assert.assertTrue(storage.run());
+        Assert.assertEquals(List.of(0, 1, 2, 3, 4), RAN);
+        // 每个任务一条 8 字节的记录
+        Assert.assertEquals(5 * 8, Files.size(dir.resolve("test.save.journal")));
+
+        var read = TaskStorage.readTaskStorage(dir.toString(), "test.save");
+        Assert.assertNotNull(read);
+        Assert.assertTrue(read.isJournal());
+        Assert.assertEquals(5, read.size());
+        Assert.assertEquals(5, read.getNowNum());
+        Assert.assertTrue(read.isEnd());
+
+        // 重新运行会重新保存任务文件并清除旧的日志
+        read.reset();
+        RAN.clear();
+        Assert.assertTrue(read.run());
+        Assert.assertEquals(List.of(0, 1, 2, 3, 4), RAN);
+        Assert.assertEquals(5 * 8, Files.size(dir.resolve("test.save.journal")));
+    }
+
+    @Test
+    public
+    void journalTornTail() throws Exception {
+        Assert.assertTrue(storage(5).setJournal(true).run());
+        var journal = dir.resolve("test.save.journal");
+
+        // 末尾写入一半的记录被忽略
+        try ( var channel = FileChannel.open(journal, WRITE, APPEND) ) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0}));
+        }
+        var read = TaskStorage.readTaskStorage(dir.toString(), "test.save");
+        Assert.assertNotNull(read);
+        Assert.assertEquals(5, read.getNowNum());
+
+        // 校验值不匹配的记录被忽略，使用上一条完整的记录
+        try ( var channel = FileChannel.open(journal, WRITE) ) {
+            channel.truncate(5 * 8);
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, 0), 4 * 8 + Integer.BYTES);
+        }
+        read = TaskStorage.readTaskStorage(dir.toString(), "test.save");
+        Assert.assertNotNull(read);
+        Assert.assertEquals(4, read.getNowNum());
+
+        // 从恢复的位置继续执行
+        RAN.clear();
+        Assert.assertTrue(read.run());
+        Assert.assertEquals(List.of(4), RAN);
+    }
+
+    @Test
+    public
+    void journalEmpty() throws Exception {
+        var storage = storage(3).setJournal(true);
+        storage.save();
+        // 没有日志时使用任务文件中的进度
+        var read = TaskStorage.readTaskStorage(dir.toString(), "test.save");
+        Assert.assertNotNull(read);
+        Assert.assertEquals(0, read.getNowNum());
+        Assert.assertTrue(read.run());
+        Assert.assertEquals(List.of(0, 1, 2), RAN);
+
+        Assert.assertTrue(read.delete());
+        Assert.assertFalse(Files.exists(dir.resolve("test.save.journal")));
+        Assert.assertNull(TaskStorage.readTaskStorage(dir.toString(), "test.save"));
+    }
+
+    @Test
+    public
+    void cursor() {
+        var storage = storage(0);
+        var tasks = new Value[5];
+        for ( int i = 0; i < tasks.length; i++ )
+            storage.addTask(tasks[i] = new Value(i));
+        // 同一个任务对象只会加入一次
+        storage.addTask(tasks[2]);
+        Assert.assertEquals(5, storage.size());
+        Assert.assertSame(tasks[0], storage.getNowTaskMedium());
+
+        Assert.assertFalse(storage.removeTask(-1));
+        Assert.assertFalse(storage.removeTask(5));
+        Assert.assertFalse(storage.removeTask(new Value(0)));
+        Assert.assertTrue(storage.removeTask(1));
+        Assert.assertArrayEquals(new TaskMedium[]{tasks[0], tasks[2], tasks[3], tasks[4]}, storage.getTaskList());
+        // 删除后可以重新加入
+        storage.addTask(tasks[1]);
+        Assert.assertSame(tasks[1], storage.getTaskList()[4]);
+
+        Assert.assertTrue(storage.removeTask(tasks[1]));
+        Assert.assertFalse(storage.removeTask(tasks[1]));
+        Assert.assertEquals(4, storage.size());
+
+        storage.clean();
+        Assert.assertEquals(0, storage.size());
+        Assert.assertNull(storage.getNowTaskMedium());
+        storage.addTask(tasks[0]);
+        Assert.assertSame(tasks[0], storage.getNowTaskMedium());
+    }
+
+    @Test
+    public
+    void resume() throws Exception {
+        var size = 100_000;
+        var storage = storage(size).setJournal(true);
+        FAIL = size / 2;
+        Assert.assertFalse(storage.run());
+        Assert.assertEquals(size / 2, storage.getNowNum());
+        Assert.assertEquals(size / 2, ((Value) storage.getNowTaskMedium()).value);
+
+        // 从出错的任务继续执行
+        var read = TaskStorage.readTaskStorage(dir.toString(), "test.save");
+        Assert.assertNotNull(read);
+        Assert.assertEquals(size, read.size());
+        Assert.assertEquals(size / 2, read.getNowNum());
+        Assert.assertEquals(size / 2, ((Value) read.getNowTaskMedium()).value);
+
+        FAIL = -1;
+        RAN.clear();
+        Assert.assertTrue(read.run());
+        Assert.assertEquals(size - size / 2, RAN.size());
+        Assert.assertEquals(size / 2, (int) RAN.get(0));
+        Assert.assertNull(read.getNowTaskMedium());
+        Assert.assertTrue(read.isEnd());
+    }
+}